@@ -0,0 +1,117 @@
+package at.refugeescode.checkin.benchmark;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Timestamp;
+import java.time.DayOfWeek;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Seeds the database with people and years of realistic taps: most people come on most weekdays, check in in the
+ * morning, stay for a few hours and sometimes come back after a break.
+ */
+public class BenchmarkData {
+
+	private static final String[] FIRST_NAMES = {"Abdul", "Amina", "Ahmad", "Fatima", "Mohammad", "Leila", "Hassan",
+			"Mariam", "Omar", "Zainab", "Ali", "Noor", "Karim", "Sara", "Yusuf", "Hana", "Anna", "Lukas", "Julia", "David"};
+	private static final String[] LAST_NAMES = {"Al Hassan", "Rahimi", "Haidari", "Karimi", "Ahmadi", "Nazari",
+			"Hosseini", "Mohammadi", "Ibrahim", "Mustafa", "Yousef", "Khalil", "Gruber", "Huber", "Wagner", "Müller",
+			"Pichler", "Steiner", "Moser", "Mayer"};
+
+	/**
+	 * Ids are assigned far above the ones Hibernate will generate, so that the application can keep inserting.
+	 */
+	private static final long FIRST_PERSON_ID = 1_000_000;
+	private static final long FIRST_CHECKIN_ID = 10_000_000;
+
+	private static final int BATCH_SIZE = 1000;
+
+	private final JdbcTemplate jdbcTemplate;
+	private final Random random;
+
+	private long checkinId = FIRST_CHECKIN_ID;
+	private Long previousId;
+	private final List<Object[]> batch = new ArrayList<>(BATCH_SIZE);
+
+	public BenchmarkData(JdbcTemplate jdbcTemplate, long seed) {
+		this.jdbcTemplate = jdbcTemplate;
+		this.random = new Random(seed);
+	}
+
+	/**
+	 * Inserts the given number of people with taps for the given number of years up to yesterday and returns their
+	 * uids.
+	 */
+	public List<String> seed(int people, int years) {
+		List<String> uids = new ArrayList<>(people);
+		LocalDate end = LocalDate.now();
+		LocalDate start = end.minusYears(years);
+
+		for (int i = 0; i < people; i++) {
+			long personId = FIRST_PERSON_ID + i;
+			String uid = String.format("%08x", personId);
+			String name = name(i);
+			jdbcTemplate.update("insert into person (id, uid, name, email) values (?, ?, ?, ?)",
+					personId, uid, name, "person" + i + "@example.com");
+			uids.add(uid);
+
+			// not everybody has been around for the whole time
+			LocalDate joined = start.plusDays(random.nextInt(years * 365 / 2 + 1));
+			taps(personId, joined, end);
+		}
+		flush();
+
+		return uids;
+	}
+
+	private static String name(int i) {
+		String name = FIRST_NAMES[i % FIRST_NAMES.length] + " " + LAST_NAMES[(i / FIRST_NAMES.length) % LAST_NAMES.length];
+		return i < FIRST_NAMES.length * LAST_NAMES.length ? name : name + " " + i;
+	}
+
+	private void taps(long personId, LocalDate start, LocalDate end) {
+		double attendance = 0.4 + random.nextDouble() * 0.5;
+		LocalDateTime last = null;
+		previousId = null;
+
+		for (LocalDate day = start; day.isBefore(end); day = day.plusDays(1)) {
+			boolean weekend = day.getDayOfWeek() == DayOfWeek.SATURDAY || day.getDayOfWeek() == DayOfWeek.SUNDAY;
+			if (random.nextDouble() > (weekend ? attendance / 10 : attendance))
+				continue;
+
+			LocalDateTime checkIn = day.atTime(8, 0).plusMinutes(random.nextInt(180));
+			LocalDateTime checkOut = checkIn.plusMinutes(120 + random.nextInt(360));
+			last = tap(personId, last, checkIn, true);
+			last = tap(personId, last, checkOut, false);
+
+			if (random.nextDouble() < 0.2) {
+				checkIn = checkOut.plusMinutes(30 + random.nextInt(60));
+				checkOut = checkIn.plusMinutes(60 + random.nextInt(120));
+				last = tap(personId, last, checkIn, true);
+				last = tap(personId, last, checkOut, false);
+			}
+		}
+	}
+
+	private LocalDateTime tap(long personId, LocalDateTime last, LocalDateTime time, boolean checkedIn) {
+		Duration duration = last == null ? Duration.ZERO : Duration.between(last, time);
+		batch.add(new Object[]{checkinId, personId, Timestamp.valueOf(time), duration.toNanos(), checkedIn, previousId});
+		previousId = checkinId++;
+		if (batch.size() >= BATCH_SIZE)
+			flush();
+		return time;
+	}
+
+	private void flush() {
+		if (batch.isEmpty())
+			return;
+		jdbcTemplate.batchUpdate("insert into checkin (id, person_id, time, duration, checked_in, previous_id) values (?, ?, ?, ?, ?, ?)", batch);
+		batch.clear();
+	}
+
+}
@@ -0,0 +1,36 @@
+package at.refugeescode.checkin.benchmark;
+
+import at.refugeescode.checkin.domain.Checkin;
+import at.refugeescode.checkin.service.CheckinService;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A tap on the kiosk, for a different person every time.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CheckinBenchmark {
+
+	@State(Scope.Thread)
+	public static class Taps {
+
+		private CheckinService checkinService;
+		private int next;
+
+		@Setup
+		public void setUp(SeededApplication application) {
+			checkinService = application.getBean(CheckinService.class);
+		}
+	}
+
+	@Benchmark
+	public Checkin newCheck(SeededApplication application, Taps taps) {
+		return taps.checkinService.newCheck(application.uid(taps.next++));
+	}
+
+}
@@ -0,0 +1,59 @@
+package at.refugeescode.checkin.benchmark;
+
+import at.refugeescode.checkin.domain.Person;
+import at.refugeescode.checkin.service.CheckinService;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.time.Duration;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The formatting done for every cell of the overview and every row of the summaries. No database needed.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FormattingBenchmark {
+
+	private static final int SIZE = 1024;
+
+	private final Duration[] durations = new Duration[SIZE];
+	private final Person[] people = new Person[SIZE];
+
+	@Setup
+	public void setUp() {
+		Random random = new Random(42);
+		for (int i = 0; i < SIZE; i++) {
+			// a third of the overview cells are empty days
+			durations[i] = random.nextInt(3) == 0 ? Duration.ZERO : Duration.ofSeconds(random.nextInt(10 * 60 * 60));
+			people[i] = new Person("uid" + i, "Abdul Rahman Al Hassan " + i, "person" + i + "@example.com");
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(SIZE)
+	public void formatDuration(Blackhole blackhole) {
+		for (Duration duration : durations)
+			blackhole.consume(CheckinService.formatDuration(duration));
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(SIZE)
+	public void ceilMinutes(Blackhole blackhole) {
+		for (Duration duration : durations)
+			blackhole.consume(CheckinService.ceilMinutes(duration));
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(SIZE)
+	public void shortName(Blackhole blackhole) {
+		for (Person person : people)
+			blackhole.consume(person.getShortName());
+	}
+
+}
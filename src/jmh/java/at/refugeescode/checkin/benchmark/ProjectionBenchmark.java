@@ -0,0 +1,96 @@
+package at.refugeescode.checkin.benchmark;
+
+import at.refugeescode.checkin.domain.CheckLogProjection;
+import at.refugeescode.checkin.domain.CheckinRepository;
+import at.refugeescode.checkin.domain.PersonRepository;
+import at.refugeescode.checkin.domain.PersonStatusProjection;
+import at.refugeescode.checkin.service.CheckLogService;
+import at.refugeescode.checkin.service.CheckinService;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.projection.SpelAwareProxyProjectionFactory;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * The public summary and a page of the check in log as JSON, built from SpEL proxy projections and from DTOs.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ProjectionBenchmark {
+
+	private static final int LOG_PAGE_SIZE = 50;
+
+	private PersonRepository personRepository;
+	private CheckinRepository checkinRepository;
+	private CheckinService checkinService;
+	private CheckLogService checkLogService;
+
+	private SpelAwareProxyProjectionFactory projectionFactory;
+	private TransactionTemplate transaction;
+	private ObjectMapper objectMapper;
+
+	@Setup
+	public void setUp(SeededApplication application) {
+		personRepository = application.getBean(PersonRepository.class);
+		checkinRepository = application.getBean(CheckinRepository.class);
+		checkinService = application.getBean(CheckinService.class);
+		checkLogService = application.getBean(CheckLogService.class);
+
+		projectionFactory = new SpelAwareProxyProjectionFactory();
+		projectionFactory.setBeanFactory(application.getContext());
+
+		transaction = new TransactionTemplate(application.getBean(PlatformTransactionManager.class));
+		transaction.setReadOnly(true);
+
+		// configured like the REST object mapper
+		objectMapper = new ObjectMapper();
+		objectMapper.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+		objectMapper.registerModules(new JavaTimeModule());
+	}
+
+	@Benchmark
+	public byte[] summaryProjection() {
+		// the projections are serialized in the transaction, like in the open session of a request
+		return transaction.execute(status -> json(personRepository.findAll().stream()
+				.map(person -> projectionFactory.createProjection(PersonStatusProjection.class, person))
+				.collect(Collectors.toList())));
+	}
+
+	@Benchmark
+	public byte[] summaryDto() {
+		return json(checkinService.personStatuses());
+	}
+
+	@Benchmark
+	public byte[] logProjection() {
+		return transaction.execute(status -> json(checkinRepository.findByOrderByTimeDesc(new PageRequest(0, LOG_PAGE_SIZE))
+				.map(checkin -> projectionFactory.createProjection(CheckLogProjection.class, checkin))
+				.getContent()));
+	}
+
+	@Benchmark
+	public byte[] logDto() {
+		return json(checkLogService.page(null, LOG_PAGE_SIZE, null, null, null).getEntries());
+	}
+
+	private byte[] json(Object value) {
+		try {
+			return objectMapper.writeValueAsBytes(value);
+		} catch (JsonProcessingException ex) {
+			throw new IllegalStateException(ex);
+		}
+	}
+
+}
@@ -0,0 +1,79 @@
+package at.refugeescode.checkin.benchmark;
+
+import at.refugeescode.checkin.service.CheckinService;
+import at.refugeescode.checkin.service.WeeklySummaryService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.DayOfWeek;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.temporal.TemporalAdjusters;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The monthly overview and the weekly summary, over the seeded history.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ReportingBenchmark {
+
+	private CheckinService checkinService;
+	private WeeklySummaryService weeklySummaryService;
+	private ObjectMapper objectMapper;
+
+	private YearMonth lastMonth;
+	private LocalDate startOfLastWeek;
+	private LocalDate endOfLastWeek;
+
+	@Setup
+	public void setUp(SeededApplication application) {
+		checkinService = application.getBean(CheckinService.class);
+		weeklySummaryService = application.getBean(WeeklySummaryService.class);
+		objectMapper = application.getContext().getBean("objectMapper", ObjectMapper.class);
+
+		lastMonth = YearMonth.now().minusMonths(1);
+		endOfLastWeek = LocalDate.now().with(TemporalAdjusters.previousOrSame(DayOfWeek.SUNDAY));
+		startOfLastWeek = endOfLastWeek.minusDays(7);
+	}
+
+	@Benchmark
+	public Map<Long, List<String>> overviewDurations() {
+		return checkinService.overviewDurations(lastMonth);
+	}
+
+	@Benchmark
+	public List<String> overviewColumns() {
+		return checkinService.overviewColumns(lastMonth);
+	}
+
+	/**
+	 * The overview as served by default, serialized like the REST API does.
+	 */
+	@Benchmark
+	public byte[] overview() throws IOException {
+		return objectMapper.writeValueAsBytes(checkinService.overview(lastMonth));
+	}
+
+	@Benchmark
+	public byte[] columnarOverview() throws IOException {
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		checkinService.writeColumnarOverview(lastMonth, outputStream);
+		return outputStream.toByteArray();
+	}
+
+	@Benchmark
+	public Map<Long, Duration> weeklyTotals() {
+		return weeklySummaryService.totals(startOfLastWeek, endOfLastWeek);
+	}
+
+}
@@ -0,0 +1,58 @@
+package at.refugeescode.checkin.benchmark;
+
+import at.refugeescode.checkin.Application;
+import at.refugeescode.checkin.service.DailyAttendanceService;
+import at.refugeescode.checkin.service.PresenceIndex;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.List;
+
+/**
+ * The application running against the embedded test database, seeded once per trial.
+ */
+@State(Scope.Benchmark)
+public class SeededApplication {
+
+	@Param("300")
+	public int people;
+
+	@Param("3")
+	public int years;
+
+	private ConfigurableApplicationContext context;
+	private List<String> uids;
+
+	@Setup(Level.Trial)
+	public void start() {
+		context = new SpringApplicationBuilder(Application.class)
+				.properties("server.port=0", "logging.level.root=WARN")
+				.run();
+
+		uids = new BenchmarkData(context.getBean(JdbcTemplate.class), 42).seed(people, years);
+
+		// the taps were written behind the back of the application
+		context.getBean(DailyAttendanceService.class).rebuild();
+		context.getBean(PresenceIndex.class).load();
+	}
+
+	@TearDown(Level.Trial)
+	public void stop() {
+		context.close();
+	}
+
+	public ConfigurableApplicationContext getContext() {
+		return context;
+	}
+
+	public <T> T getBean(Class<T> type) {
+		return context.getBean(type);
+	}
+
+	public String uid(int i) {
+		return uids.get(Math.floorMod(i, uids.size()));
+	}
+
+}
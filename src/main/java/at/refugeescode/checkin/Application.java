@@ -1,5 +1,8 @@
 package at.refugeescode.checkin;
 
+import at.refugeescode.checkin.config.JobMonitor;
+import at.refugeescode.checkin.config.MonitoredTaskScheduler;
+import at.refugeescode.checkin.service.JobLeases;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
@@ -21,8 +24,8 @@ import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
 public class Application {
 
     @Bean
-    public TaskScheduler taskScheduler() {
-        ThreadPoolTaskScheduler threadPoolTaskScheduler = new ThreadPoolTaskScheduler();
+    public TaskScheduler taskScheduler(JobMonitor jobMonitor, JobLeases jobLeases) {
+        ThreadPoolTaskScheduler threadPoolTaskScheduler = new MonitoredTaskScheduler(jobMonitor, jobLeases);
         threadPoolTaskScheduler.setPoolSize(10);
         return threadPoolTaskScheduler;
     }
@@ -0,0 +1,97 @@
+package at.refugeescode.checkin.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.aop.interceptor.AsyncUncaughtExceptionHandler;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.event.ContextClosedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.AsyncConfigurer;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Runs {@code @Async} methods on their own bounded pool, instead of the pool of the scheduler. Tasks that are still
+ * queued on shutdown are run as soon as the context starts closing, while the beans they use still work, for up to
+ * {@code checkin.async.awaitTermination} seconds.
+ */
+@Configuration
+@Slf4j
+public class AsyncConfig implements AsyncConfigurer {
+
+    public enum RejectionPolicy {
+
+        /**
+         * Runs the task on the calling thread, which slows down the caller until the pool catches up.
+         */
+        CALLER_RUNS(new ThreadPoolExecutor.CallerRunsPolicy()),
+        /**
+         * Throws a {@link org.springframework.core.task.TaskRejectedException} to the caller.
+         */
+        ABORT(new ThreadPoolExecutor.AbortPolicy()),
+        /**
+         * Drops the task, which is only logged.
+         */
+        DISCARD((runnable, executor) -> log.warn("Discarded async task, {} tasks queued", executor.getQueue().size()));
+
+        private final RejectedExecutionHandler handler;
+
+        RejectionPolicy(RejectedExecutionHandler handler) {
+            this.handler = handler;
+        }
+    }
+
+    @Value("${checkin.async.corePoolSize:2}")
+    private int corePoolSize;
+    @Value("${checkin.async.maxPoolSize:4}")
+    private int maxPoolSize;
+    @Value("${checkin.async.queueCapacity:500}")
+    private int queueCapacity;
+    @Value("${checkin.async.rejectionPolicy:CALLER_RUNS}")
+    private RejectionPolicy rejectionPolicy;
+    @Value("${checkin.async.awaitTermination:30}")
+    private int awaitTermination;
+
+    @Bean
+    public InstrumentedTaskExecutor asyncExecutor() {
+        InstrumentedTaskExecutor executor = new InstrumentedTaskExecutor();
+        executor.setCorePoolSize(corePoolSize);
+        executor.setMaxPoolSize(maxPoolSize);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setRejectedExecutionHandler(rejectionPolicy.handler);
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(awaitTermination);
+        executor.setThreadNamePrefix("Async-");
+        return executor;
+    }
+
+    /**
+     * Drains the pool before any bean is destroyed. Left to the executor's own destroy callback, the drain would run
+     * last, after the {@code EntityManagerFactory} is closed, since the pool is created early for the bean post
+     * processors.
+     */
+    @EventListener
+    public void drain(ContextClosedEvent event) {
+        ApplicationContext context = event.getApplicationContext();
+        if (context.containsLocalBean("asyncExecutor")) {
+            InstrumentedTaskExecutor executor = context.getBean("asyncExecutor", InstrumentedTaskExecutor.class);
+            log.info("Draining {} queued async tasks", executor.getThreadPoolExecutor().getQueue().size());
+            executor.shutdown();
+        }
+    }
+
+    @Override
+    public Executor getAsyncExecutor() {
+        return asyncExecutor();
+    }
+
+    @Override
+    public AsyncUncaughtExceptionHandler getAsyncUncaughtExceptionHandler() {
+        return (ex, method, params) -> log.error("Async call of {} failed", method, ex);
+    }
+
+}
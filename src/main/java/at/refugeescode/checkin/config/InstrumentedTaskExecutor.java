@@ -0,0 +1,43 @@
+package at.refugeescode.checkin.config;
+
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link ThreadPoolTaskExecutor} that counts the tasks it rejects and reports the state of its pool.
+ */
+public class InstrumentedTaskExecutor extends ThreadPoolTaskExecutor {
+
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * Sets the handler of tasks that find all threads busy and the queue full, which is called after the rejection
+     * has been counted.
+     */
+    @Override
+    public void setRejectedExecutionHandler(RejectedExecutionHandler rejectedExecutionHandler) {
+        super.setRejectedExecutionHandler((runnable, executor) -> {
+            rejected.incrementAndGet();
+            rejectedExecutionHandler.rejectedExecution(runnable, executor);
+        });
+    }
+
+    public Map<String, Number> getMetrics() {
+        Map<String, Number> metrics = new LinkedHashMap<>();
+        ThreadPoolExecutor executor = getThreadPoolExecutor();
+        metrics.put("threads", executor.getPoolSize());
+        metrics.put("threads.max", executor.getMaximumPoolSize());
+        metrics.put("active", executor.getActiveCount());
+        metrics.put("queued", executor.getQueue().size());
+        metrics.put("queue.remaining", executor.getQueue().remainingCapacity());
+        metrics.put("completed", executor.getCompletedTaskCount());
+        metrics.put("rejected", rejected.get());
+        return metrics;
+    }
+
+}
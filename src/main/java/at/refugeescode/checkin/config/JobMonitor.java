@@ -0,0 +1,155 @@
+package at.refugeescode.checkin.config;
+
+import at.refugeescode.checkin.dto.JobRun;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.scheduling.support.ScheduledMethodRunnable;
+import org.springframework.stereotype.Component;
+import org.springframework.util.ClassUtils;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Times every run of the {@code @Scheduled} methods, as wrapped by {@link MonitoredTaskScheduler}, and keeps the last
+ * {@code checkin.jobs.history} runs of every job.
+ * <p>
+ * A run is logged as an overrun when it takes longer than its budget, {@code checkin.jobs.budget.<job>} or else
+ * {@code checkin.jobs.budget} milliseconds, or when it is still running at its next trigger. Jobs report what they
+ * processed with {@link #count}.
+ */
+@Component
+@RequiredArgsConstructor(onConstructor = @__(@Autowired))
+@Slf4j
+public class JobMonitor {
+
+    @NonNull
+    private final Environment environment;
+
+    @Value("${checkin.jobs.budget:60000}")
+    private long budget;
+    @Value("${checkin.jobs.history:20}")
+    private int history;
+
+    private final ThreadLocal<Map<String, Long>> currentItems = new ThreadLocal<>();
+    private final ThreadLocal<Boolean> currentSkipped = new ThreadLocal<>();
+    private final Set<String> running = ConcurrentHashMap.newKeySet();
+    private final Map<String, Deque<JobRun>> runs = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the given task wrapped to be monitored if it is a scheduled method, or else the task itself.
+     *
+     * @param nextTrigger the time the task is triggered next after it started at the given time, or null if the next
+     *                    trigger depends on when it ends
+     */
+    public Runnable monitor(Runnable task, Function<Date, Date> nextTrigger) {
+        if (!(task instanceof ScheduledMethodRunnable))
+            return task;
+
+        String job = name((ScheduledMethodRunnable) task);
+        long jobBudget = environment.getProperty("checkin.jobs.budget." + job, Long.class, budget);
+        return () -> run(job, task, jobBudget, nextTrigger);
+    }
+
+    /**
+     * Returns the name of the job that runs the given scheduled method, {@code <Class>.<method>}.
+     */
+    public static String name(ScheduledMethodRunnable scheduledMethod) {
+        return ClassUtils.getUserClass(scheduledMethod.getTarget()).getSimpleName() + "." + scheduledMethod.getMethod().getName();
+    }
+
+    /**
+     * Records the current run as skipped, because another instance runs the job.
+     */
+    public void skip() {
+        if (currentItems.get() != null)
+            currentSkipped.set(true);
+    }
+
+    /**
+     * Adds to the number of items of the given kind that the current run has processed. Does nothing outside of a
+     * scheduled run, so jobs that are also called directly can always count.
+     */
+    public void count(String item, long count) {
+        Map<String, Long> items = currentItems.get();
+        if (items != null)
+            items.merge(item, count, Long::sum);
+    }
+
+    /**
+     * Returns the last runs of every job, newest first.
+     */
+    public Map<String, List<JobRun>> getRuns() {
+        Map<String, List<JobRun>> result = new TreeMap<>();
+        runs.forEach((job, jobRuns) -> {
+            synchronized (jobRuns) {
+                result.put(job, new ArrayList<>(jobRuns));
+            }
+        });
+        return result;
+    }
+
+    private void run(String job, Runnable task, long jobBudget, Function<Date, Date> nextTrigger) {
+        List<String> overlapping = new ArrayList<>(running);
+        running.add(job);
+        currentItems.set(new LinkedHashMap<>());
+
+        Date start = new Date();
+        Date next = nextTrigger == null ? null : nextTrigger.apply(start);
+        long startNanos = System.nanoTime();
+        JobRun.Outcome outcome = JobRun.Outcome.FAILED;
+        String error = null;
+        try {
+            task.run();
+            outcome = currentSkipped.get() != null ? JobRun.Outcome.SKIPPED : JobRun.Outcome.SUCCEEDED;
+        } catch (RuntimeException | Error ex) {
+            error = ex.toString();
+            throw ex;
+        } finally {
+            long millis = (System.nanoTime() - startNanos) / 1_000_000;
+            Map<String, Long> items = currentItems.get();
+            currentItems.remove();
+            currentSkipped.remove();
+            running.remove(job);
+
+            boolean overrun = false;
+            if (millis > jobBudget) {
+                log.warn("Job {} took {} ms, over its budget of {} ms", job, millis, jobBudget);
+                overrun = true;
+            }
+            if (next != null && System.currentTimeMillis() > next.getTime()) {
+                log.warn("Job {} took {} ms, past its next trigger at {}", job, millis, next);
+                overrun = true;
+            }
+
+            record(new JobRun(job, LocalDateTime.ofInstant(start.toInstant(), ZoneId.systemDefault()), millis, outcome,
+                    error, Collections.unmodifiableMap(items), overrun, overlapping));
+        }
+    }
+
+    private void record(JobRun run) {
+        Deque<JobRun> jobRuns = runs.computeIfAbsent(run.getJob(), job -> new ArrayDeque<>(history));
+        synchronized (jobRuns) {
+            if (jobRuns.size() == history)
+                jobRuns.removeLast();
+            jobRuns.addFirst(run);
+        }
+    }
+
+}
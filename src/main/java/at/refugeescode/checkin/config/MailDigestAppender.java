@@ -0,0 +1,243 @@
+package at.refugeescode.checkin.config;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.ThrowableProxyUtil;
+import ch.qos.logback.core.UnsynchronizedAppenderBase;
+import ch.qos.logback.core.boolex.EvaluationException;
+import ch.qos.logback.core.boolex.EventEvaluator;
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.web.util.HtmlUtils;
+
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.Transport;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Mails log events in digests, without blocking the logging thread. Matching events are put into a bounded queue
+ * and a background thread sends one mail per {@code window} milliseconds, in which identical events, including their
+ * stack traces, are listed once with the number of times they occurred.
+ */
+@Getter
+@Setter
+public class MailDigestAppender extends UnsynchronizedAppenderBase<ILoggingEvent> {
+
+    private static final DateTimeFormatter TIME_FORMATTER = DateTimeFormatter.ofPattern("dd.MM.yyyy HH:mm:ss.SSS");
+
+    private String smtpHost;
+    private int smtpPort = 25;
+    private String username;
+    private String password;
+    private boolean starttls;
+    private String from;
+    private String to;
+    private String subject = "Checkin log digest";
+    private EventEvaluator<ILoggingEvent> evaluator;
+
+    /**
+     * How long to collect events before they are mailed as one digest, in milliseconds.
+     */
+    private long window = 60000;
+    /**
+     * The number of events that may wait for the background thread. Further events are dropped.
+     */
+    private int queueSize = 1000;
+    /**
+     * The maximum number of distinct events listed in one digest. Further events are only counted.
+     */
+    private int maxDistinctEvents = 100;
+
+    private final AtomicLong droppedEvents = new AtomicLong();
+    private final AtomicLong digestedEvents = new AtomicLong();
+    private final AtomicLong sentDigests = new AtomicLong();
+
+    private Session session;
+    private BlockingQueue<ILoggingEvent> queue;
+    private Thread worker;
+
+    @Override
+    public void start() {
+        if (evaluator == null) {
+            addError("No evaluator set for the appender '" + name + "'.");
+            return;
+        }
+
+        if (smtpHost == null || from == null || to == null) {
+            addError("No smtpHost, from or to set for the appender '" + name + "'.");
+            return;
+        }
+
+        Properties properties = new Properties();
+        properties.put("mail.smtp.host", smtpHost);
+        properties.put("mail.smtp.port", String.valueOf(smtpPort));
+        properties.put("mail.smtp.auth", String.valueOf(username != null && !username.isEmpty()));
+        properties.put("mail.smtp.starttls.enable", String.valueOf(starttls));
+        session = Session.getInstance(properties);
+
+        queue = new ArrayBlockingQueue<>(queueSize);
+
+        worker = new Thread(this::run, "MailDigestAppender-" + name);
+        worker.setDaemon(true);
+
+        super.start();
+        worker.start();
+    }
+
+    @Override
+    public void stop() {
+        if (!isStarted())
+            return;
+
+        super.stop();
+        worker.interrupt();
+        try {
+            worker.join(10000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    protected void append(ILoggingEvent event) {
+        try {
+            if (evaluator.evaluate(event)) {
+                event.prepareForDeferredProcessing();
+                if (!queue.offer(event))
+                    droppedEvents.incrementAndGet();
+            }
+        } catch (EvaluationException ex) {
+            addError("Exception in appender '" + name + "'.", ex);
+        }
+    }
+
+    private void run() {
+        List<ILoggingEvent> events = new ArrayList<>();
+        while (isStarted() || !queue.isEmpty()) {
+            try {
+                ILoggingEvent first = isStarted() ? queue.take() : queue.poll();
+                if (first == null)
+                    break;
+                events.add(first);
+
+                // collect everything that arrives within the window after the first event
+                Thread.sleep(window);
+            } catch (InterruptedException e) {
+                // stopping, send what was collected
+            }
+            queue.drainTo(events);
+
+            if (!events.isEmpty())
+                send(digest(events), events.size());
+            events.clear();
+        }
+    }
+
+    public Map<String, Number> getMetrics() {
+        Map<String, Number> metrics = new LinkedHashMap<>();
+        metrics.put("queue.depth", queue == null ? 0 : queue.size());
+        metrics.put("queue.capacity", queueSize);
+        metrics.put("digested", digestedEvents.get());
+        metrics.put("dropped", droppedEvents.get());
+        metrics.put("digests", sentDigests.get());
+        return metrics;
+    }
+
+    private Collection<Entry> digest(List<ILoggingEvent> events) {
+        Map<String, Entry> entries = new LinkedHashMap<>();
+        for (ILoggingEvent event : events) {
+            String stackTrace = event.getThrowableProxy() == null ? "" : ThrowableProxyUtil.asString(event.getThrowableProxy());
+            String key = event.getLevel() + "|" + event.getLoggerName() + "|" + event.getMessage() + "|" + stackTrace;
+
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                if (entries.size() >= maxDistinctEvents)
+                    continue;
+                entry = new Entry(event, stackTrace);
+                entries.put(key, entry);
+            }
+            entry.add(event);
+        }
+        return entries.values();
+    }
+
+    private void send(Collection<Entry> entries, int eventCount) {
+        StringBuilder html = new StringBuilder();
+        html.append("<table border=\"1\" cellpadding=\"4\" style=\"border-collapse: collapse\">");
+        html.append("<tr><th>Count</th><th>First</th><th>Last</th><th>Level</th><th>Logger</th><th>Message</th></tr>");
+        for (Entry entry : entries) {
+            html.append("<tr><td>").append(entry.count)
+                    .append("</td><td>").append(format(entry.firstTimestamp))
+                    .append("</td><td>").append(format(entry.lastTimestamp))
+                    .append("</td><td>").append(entry.event.getLevel())
+                    .append("</td><td>").append(escape(entry.event.getLoggerName()))
+                    .append("</td><td>").append(escape(entry.event.getFormattedMessage()));
+            if (!entry.stackTrace.isEmpty())
+                html.append("<pre>").append(escape(entry.stackTrace)).append("</pre>");
+            html.append("</td></tr>");
+        }
+        html.append("</table>");
+
+        long dropped = droppedEvents.get();
+        if (dropped > 0)
+            html.append("<p>").append(dropped).append(" events have been dropped since startup.</p>");
+
+        try {
+            MimeMessage message = new MimeMessage(session);
+            message.setFrom(new InternetAddress(from));
+            message.setRecipients(Message.RecipientType.TO, InternetAddress.parse(to));
+            message.setSubject(subject + " (" + eventCount + " events, " + entries.size() + " distinct)");
+            message.setSentDate(new Date());
+            message.setContent(html.toString(), "text/html; charset=UTF-8");
+
+            if (username != null && !username.isEmpty())
+                Transport.send(message, username, password);
+            else
+                Transport.send(message);
+
+            digestedEvents.addAndGet(eventCount);
+            sentDigests.incrementAndGet();
+        } catch (MessagingException ex) {
+            addError("Failed to send digest in appender '" + name + "'.", ex);
+        }
+    }
+
+    private static String format(long timestamp) {
+        return TIME_FORMATTER.format(LocalDateTime.ofInstant(Instant.ofEpochMilli(timestamp), ZoneId.systemDefault()));
+    }
+
+    private static String escape(String text) {
+        return text == null ? "" : HtmlUtils.htmlEscape(text);
+    }
+
+    private static class Entry {
+
+        private final ILoggingEvent event;
+        private final String stackTrace;
+        private int count;
+        private long firstTimestamp = Long.MAX_VALUE;
+        private long lastTimestamp = Long.MIN_VALUE;
+
+        private Entry(ILoggingEvent event, String stackTrace) {
+            this.event = event;
+            this.stackTrace = stackTrace;
+        }
+
+        private void add(ILoggingEvent event) {
+            count++;
+            firstTimestamp = Math.min(firstTimestamp, event.getTimeStamp());
+            lastTimestamp = Math.max(lastTimestamp, event.getTimeStamp());
+        }
+    }
+
+}
@@ -0,0 +1,74 @@
+package at.refugeescode.checkin.config;
+
+import at.refugeescode.checkin.service.JobLeases;
+import org.springframework.scheduling.Trigger;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.scheduling.support.CronSequenceGenerator;
+import org.springframework.scheduling.support.CronTrigger;
+
+import java.util.Date;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A {@link ThreadPoolTaskScheduler} that runs the {@code @Scheduled} methods through a {@link JobMonitor}, and the
+ * {@link at.refugeescode.checkin.service.Leased} ones only with the lease of their job from {@link JobLeases}.
+ */
+public class MonitoredTaskScheduler extends ThreadPoolTaskScheduler {
+
+    private final JobMonitor jobMonitor;
+    private final JobLeases jobLeases;
+
+    public MonitoredTaskScheduler(JobMonitor jobMonitor, JobLeases jobLeases) {
+        this.jobMonitor = jobMonitor;
+        this.jobLeases = jobLeases;
+    }
+
+    @Override
+    public ScheduledFuture<?> schedule(Runnable task, Trigger trigger) {
+        // a run is scheduled right after the trigger has been asked for its time, so that time is the one of the
+        // current run, the same on every instance
+        AtomicReference<Date> scheduledTime = new AtomicReference<>();
+        Trigger recordingTrigger = triggerContext -> {
+            Date next = trigger.nextExecutionTime(triggerContext);
+            scheduledTime.set(next);
+            return next;
+        };
+        task = jobLeases.lease(task, scheduledTime::get);
+
+        if (trigger instanceof CronTrigger) {
+            CronSequenceGenerator sequence = new CronSequenceGenerator(((CronTrigger) trigger).getExpression());
+            task = jobMonitor.monitor(task, sequence::next);
+        }
+        else {
+            task = jobMonitor.monitor(task, null);
+        }
+        return super.schedule(task, recordingTrigger);
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleAtFixedRate(Runnable task, Date startTime, long period) {
+        task = jobLeases.lease(task, null);
+        return super.scheduleAtFixedRate(jobMonitor.monitor(task, start -> new Date(start.getTime() + period)), startTime, period);
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleAtFixedRate(Runnable task, long period) {
+        task = jobLeases.lease(task, null);
+        return super.scheduleAtFixedRate(jobMonitor.monitor(task, start -> new Date(start.getTime() + period)), period);
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleWithFixedDelay(Runnable task, Date startTime, long delay) {
+        // the next run is triggered by the end of this one, so it can only go over its budget
+        task = jobLeases.lease(task, null);
+        return super.scheduleWithFixedDelay(jobMonitor.monitor(task, null), startTime, delay);
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleWithFixedDelay(Runnable task, long delay) {
+        task = jobLeases.lease(task, null);
+        return super.scheduleWithFixedDelay(jobMonitor.monitor(task, null), delay);
+    }
+
+}
@@ -0,0 +1,68 @@
+package at.refugeescode.checkin.config;
+
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.annotation.Pointcut;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+
+/**
+ * Runs every create, update and delete through the REST API in one transaction with its repository event handlers,
+ * so that the handlers can keep data derived from the entity, like the daily attendance, in step with it.
+ */
+@Aspect
+@Component
+@RequiredArgsConstructor(onConstructor = @__(@Autowired))
+public class RestTransactionAspect {
+
+    @NonNull
+    private final PlatformTransactionManager transactionManager;
+
+    private TransactionTemplate transaction;
+
+    @PostConstruct
+    protected void initialize() {
+        transaction = new TransactionTemplate(transactionManager);
+    }
+
+    @Pointcut("execution(public * org.springframework.data.rest.webmvc.RepositoryEntityController.postCollectionResource(..)) || " +
+            "execution(public * org.springframework.data.rest.webmvc.RepositoryEntityController.putItemResource(..)) || " +
+            "execution(public * org.springframework.data.rest.webmvc.RepositoryEntityController.patchItemResource(..)) || " +
+            "execution(public * org.springframework.data.rest.webmvc.RepositoryEntityController.deleteItemResource(..))")
+    public void writeMethod() {}
+
+    @Around("writeMethod()")
+    public Object inTransaction(ProceedingJoinPoint joinPoint) throws Throwable {
+        try {
+            return transaction.execute(status -> {
+                try {
+                    return joinPoint.proceed();
+                } catch (RuntimeException | Error ex) {
+                    throw ex;
+                } catch (Throwable ex) {
+                    throw new CheckedException(ex);
+                }
+            });
+        } catch (CheckedException ex) {
+            throw ex.getCause();
+        }
+    }
+
+    /**
+     * Carries a checked exception of the controller through the transaction template, which rolls back on it.
+     */
+    private static class CheckedException extends RuntimeException {
+
+        private CheckedException(Throwable cause) {
+            super(cause);
+        }
+    }
+
+}
@@ -13,6 +13,19 @@ import net.gpedro.integrations.slack.SlackMessage;
 import org.slf4j.Marker;
 import org.slf4j.MarkerFactory;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Posts log messages to Slack without blocking the logging thread. Messages are put into a bounded queue and posted
+ * by a background thread, which merges messages that arrive within {@code batchWindow} milliseconds into one post.
+ */
 @Getter
 @Setter
 public class SlackAppender extends UnsynchronizedAppenderBase<ILoggingEvent> {
@@ -35,7 +48,35 @@ public class SlackAppender extends UnsynchronizedAppenderBase<ILoggingEvent> {
     private Layout<ILoggingEvent> layout = DEFAULT_LAYOUT;
     private EventEvaluator<ILoggingEvent> evaluator;
 
+    /**
+     * The number of messages that may wait for the background thread.
+     */
+    private int queueSize = 256;
+    /**
+     * How long to wait for further messages to merge into the same post, in milliseconds.
+     */
+    private long batchWindow = 1000;
+    /**
+     * The maximum number of messages merged into one post.
+     */
+    private int maxBatchSize = 20;
+    /**
+     * Whether to drop messages when the queue is full, instead of blocking the logging thread until there is room.
+     */
+    private boolean neverBlock = true;
+    /**
+     * The connect and read timeout for posting to Slack, in milliseconds.
+     */
+    private int timeout = 5000;
+
+    private final AtomicLong droppedMessages = new AtomicLong();
+    private final AtomicLong sentMessages = new AtomicLong();
+    private final AtomicLong failedMessages = new AtomicLong();
+    private final AtomicLong posts = new AtomicLong();
+
     private SlackApi slackApi;
+    private BlockingQueue<String> queue;
+    private Thread worker;
 
     @Override
     public void start() {
@@ -49,8 +90,28 @@ public class SlackAppender extends UnsynchronizedAppenderBase<ILoggingEvent> {
             return;
         }
 
-        slackApi = new SlackApi(webhookURL);
+        slackApi = new SlackApi(webhookURL, timeout);
+        queue = new ArrayBlockingQueue<>(queueSize);
+
+        worker = new Thread(this::run, "SlackAppender-" + name);
+        worker.setDaemon(true);
+
         super.start();
+        worker.start();
+    }
+
+    @Override
+    public void stop() {
+        if (!isStarted())
+            return;
+
+        super.stop();
+        worker.interrupt();
+        try {
+            worker.join(timeout);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 
     @Override
@@ -58,12 +119,70 @@ public class SlackAppender extends UnsynchronizedAppenderBase<ILoggingEvent> {
         try {
             if (evaluator.evaluate(event)) {
                 String text = layout.doLayout(event);
-                SlackMessage message = new SlackMessage(channel, username, text).setIcon(icon);
-                slackApi.call(message);
+                if (neverBlock) {
+                    if (!queue.offer(text))
+                        droppedMessages.incrementAndGet();
+                }
+                else {
+                    queue.put(text);
+                }
             }
         } catch (EvaluationException ex) {
             addError("Exception in appender '" + name + "'.", ex);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            droppedMessages.incrementAndGet();
+        }
+    }
+
+    private void run() {
+        List<String> batch = new ArrayList<>(maxBatchSize);
+        while (isStarted() || !queue.isEmpty()) {
+            try {
+                String first = isStarted() ? queue.take() : queue.poll();
+                if (first == null)
+                    break;
+                batch.add(first);
+
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(batchWindow);
+                while (batch.size() < maxBatchSize && isStarted()) {
+                    String next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (next == null)
+                        break;
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                // stopping, post what was collected and drain the rest of the queue
+            }
+            queue.drainTo(batch, maxBatchSize - batch.size());
+
+            if (!batch.isEmpty())
+                post(batch);
+            batch.clear();
+        }
+    }
+
+    public Map<String, Number> getMetrics() {
+        Map<String, Number> metrics = new LinkedHashMap<>();
+        metrics.put("queue.depth", queue == null ? 0 : queue.size());
+        metrics.put("queue.capacity", queueSize);
+        metrics.put("sent", sentMessages.get());
+        metrics.put("failed", failedMessages.get());
+        metrics.put("dropped", droppedMessages.get());
+        metrics.put("posts", posts.get());
+        return metrics;
+    }
+
+    private void post(List<String> batch) {
+        String text = String.join("", batch);
+        try {
+            slackApi.call(new SlackMessage(channel, username, text).setIcon(icon));
+            sentMessages.addAndGet(batch.size());
+            posts.incrementAndGet();
+        } catch (RuntimeException ex) {
+            failedMessages.addAndGet(batch.size());
+            addError("Failed to post to Slack in appender '" + name + "'.", ex);
         }
     }
 
-}
\ No newline at end of file
+}
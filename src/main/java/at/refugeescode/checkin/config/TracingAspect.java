@@ -12,6 +12,7 @@ import org.aspectj.lang.ProceedingJoinPoint;
 import org.aspectj.lang.annotation.Around;
 import org.aspectj.lang.annotation.Aspect;
 import org.aspectj.lang.annotation.Pointcut;
+import org.aspectj.lang.reflect.MethodSignature;
 import org.hibernate.LazyInitializationException;
 import org.springframework.aop.framework.Advised;
 import org.springframework.beans.factory.annotation.Value;
@@ -19,14 +20,20 @@ import org.springframework.stereotype.Component;
 import org.springframework.util.StopWatch;
 
 import javax.annotation.PostConstruct;
+import java.lang.reflect.Method;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.stream.Collectors;
 
 @Aspect
 @Component
 @Slf4j
-@ToString
+@ToString(exclude = "histograms")
 @Getter
 @Setter
 public class TracingAspect {
@@ -47,6 +54,20 @@ public class TracingAspect {
     @Value("${checkin.aop.maxStringLength:100}")
     private int maxStringLength;
 
+    /**
+     * Whether to record latency histograms of the advised methods.
+     */
+    @Value("${checkin.aop.metrics:false}")
+    private boolean metricsEnabled;
+
+    /**
+     * The share of calls that are traced with their arguments and return values, between 0 and 1.
+     */
+    @Value("${checkin.aop.sampleRate:1.0}")
+    private double sampleRate;
+
+    private final ConcurrentMap<Class<?>, ConcurrentMap<Method, LatencyHistogram>> histograms = new ConcurrentHashMap<>();
+
     /*-------------------------------------*\
      * Boilerplate
     \*-------------------------------------*/
@@ -151,6 +172,12 @@ public class TracingAspect {
         return getTargetName(joinPoint) + "." + joinPoint.getSignature().getName();
     }
 
+    private static String getTargetAndMethodSignature(JoinPoint joinPoint, Method method) {
+        return getTargetName(joinPoint) + "." + method.getName() + Arrays.stream(method.getParameterTypes())
+                .map(Class::getSimpleName)
+                .collect(Collectors.joining(",", "(", ")"));
+    }
+
     private static String getTargetName(JoinPoint joinPoint) {
         Object target = joinPoint.getTarget();
         if (target == null)
@@ -176,37 +203,84 @@ public class TracingAspect {
     }
 
     private Object profileMethod(ProceedingJoinPoint joinPoint) throws Throwable {
-        if (isEnabled() && log.isTraceEnabled()) {
-            StopWatch stopWatch = new StopWatch();
-            Object returnValue = "[no return value obtained]";
+        if (isEnabled() && log.isTraceEnabled() && isSampled()) {
+            return traceMethod(joinPoint);
+        }
+        else if (isMetricsEnabled()) {
+            long start = System.nanoTime();
             try {
-                stopWatch.start(getTargetAndMethodName(joinPoint));
-                returnValue = joinPoint.proceed();
-                return returnValue;
+                return joinPoint.proceed();
             }
             finally {
-                stopWatch.stop();
-
-                String returnString;
-                try {
-                    returnString = cleanToString(returnValue);
-                }
-                catch (LazyInitializationException e) {
-                    returnString = "[" + e.getMessage() + "]";
-                }
-
-                log.trace("{} returned {}{} — execution time: {} ms",
-                        joinPointSignature(joinPoint, prettyPrint),
-                        returnString,
-                        prettyPrint ? "\n" : "",
-                        stopWatch.getLastTaskTimeMillis());
-                }
+                getHistogram(joinPoint).record(System.nanoTime() - start);
+            }
         }
         else {
             return joinPoint.proceed();
         }
     }
 
+    private boolean isSampled() {
+        return sampleRate >= 1.0 || ThreadLocalRandom.current().nextDouble() < sampleRate;
+    }
+
+    private Object traceMethod(ProceedingJoinPoint joinPoint) throws Throwable {
+        StopWatch stopWatch = new StopWatch();
+        Object returnValue = "[no return value obtained]";
+        long start = System.nanoTime();
+        try {
+            stopWatch.start(getTargetAndMethodName(joinPoint));
+            returnValue = joinPoint.proceed();
+            return returnValue;
+        }
+        finally {
+            stopWatch.stop();
+            if (isMetricsEnabled())
+                getHistogram(joinPoint).record(System.nanoTime() - start);
+
+            String returnString;
+            try {
+                returnString = cleanToString(returnValue);
+            }
+            catch (LazyInitializationException e) {
+                returnString = "[" + e.getMessage() + "]";
+            }
+
+            log.trace("{} returned {}{} — execution time: {} ms",
+                    joinPointSignature(joinPoint, prettyPrint),
+                    returnString,
+                    prettyPrint ? "\n" : "",
+                    stopWatch.getLastTaskTimeMillis());
+        }
+    }
+
+    private LatencyHistogram getHistogram(ProceedingJoinPoint joinPoint) {
+        Object target = joinPoint.getTarget();
+        Class<?> targetClass = target == null ? Void.class : target.getClass();
+        Method method = ((MethodSignature) joinPoint.getSignature()).getMethod();
+
+        ConcurrentMap<Method, LatencyHistogram> methodHistograms = histograms.get(targetClass);
+        if (methodHistograms == null)
+            methodHistograms = histograms.computeIfAbsent(targetClass, key -> new ConcurrentHashMap<>());
+
+        LatencyHistogram histogram = methodHistograms.get(method);
+        if (histogram == null)
+            histogram = methodHistograms.computeIfAbsent(method, key -> new LatencyHistogram(getTargetAndMethodSignature(joinPoint, key)));
+        return histogram;
+    }
+
+    /**
+     * Returns a snapshot of the latency histograms of all advised methods that have been called, by method signature,
+     * so that overloads are told apart.
+     */
+    public Map<String, Map<String, Number>> getMetrics() {
+        Map<String, Map<String, Number>> metrics = new TreeMap<>();
+        for (ConcurrentMap<Method, LatencyHistogram> methodHistograms : histograms.values())
+            for (LatencyHistogram histogram : methodHistograms.values())
+                metrics.put(histogram.getName(), histogram.snapshot());
+        return metrics;
+    }
+
     private String cleanToString(Object object) {
         // call String.valueOf twice to handle objects that return literal null in their toString() method
         String stringValue = String.valueOf(String.valueOf(object));
@@ -0,0 +1,24 @@
+package at.refugeescode.checkin.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+
+/**
+ * A row of the check in log, with the same properties as the {@link CheckLogProjection} plus the id of the check.
+ */
+@AllArgsConstructor
+@Getter
+@ToString
+public class CheckLogEntry {
+
+    private final Long id;
+    private final String name;
+    private final LocalDateTime time;
+    private final Duration duration;
+    private final boolean checkedIn;
+
+}
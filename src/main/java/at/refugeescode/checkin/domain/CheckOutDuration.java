@@ -0,0 +1,22 @@
+package at.refugeescode.checkin.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+
+/**
+ * The duration of a single check out, without the person or the check in it belongs to.
+ */
+@AllArgsConstructor
+@Getter
+@ToString
+public class CheckOutDuration {
+
+    private final Long personId;
+    private final LocalDateTime time;
+    private final Duration duration;
+
+}
@@ -1,5 +1,6 @@
 package at.refugeescode.checkin.domain;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import lombok.*;
 
 import javax.persistence.*;
@@ -12,6 +13,10 @@ import java.time.LocalDateTime;
 @NoArgsConstructor
 @RequiredArgsConstructor
 @ToString
+@Table(indexes = {
+        @Index(name = "checkin_person_id_time_idx", columnList = "person_id, time"),
+        @Index(name = "checkin_time_id_idx", columnList = "time, id")
+})
 public class Checkin {
 
     @Id
@@ -33,6 +38,25 @@ public class Checkin {
 
     private boolean checkedIn;
 
+    /**
+     * The id of the check this one follows. Unique, so that two concurrent taps can never both follow the same check.
+     */
+    @JsonIgnore
+    @Column(unique = true)
+    private Long previousId;
+
+    /**
+     * The id a kiosk gave to a tap it buffered while offline, so that replaying the tap twice records it once.
+     */
+    @JsonIgnore
+    @Column(unique = true)
+    private String tapId;
+
+    /**
+     * The kiosk that buffered the tap, if the check was replayed.
+     */
+    private String kioskId;
+
     public Checkin(Person person, LocalDateTime time, Duration duration, boolean checkedIn) {
         this.person = person;
         this.time = time;
@@ -2,24 +2,131 @@ package at.refugeescode.checkin.domain;
 
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.rest.core.annotation.RepositoryRestResource;
+import org.springframework.data.rest.core.annotation.RestResource;
 
+import javax.persistence.QueryHint;
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
 @RepositoryRestResource(collectionResourceRel = "checkins", path = "checkins")
 public interface CheckinRepository extends JpaRepository<Checkin, Long> {
 
+    /**
+     * The check in log for the "log" projection. The person is fetched with the page, instead of once per row.
+     */
+    @EntityGraph(attributePaths = "person")
     Page<Checkin> findByOrderByTimeDesc(Pageable pageable);
 
     Optional<Checkin> findFirstByPersonOrderByTimeDesc(Person person);
 
+    @RestResource(exported = false)
+    Optional<Checkin> findFirstByPersonOrderByTimeDescIdDesc(Person person);
+
+    @RestResource(exported = false)
+    Optional<Checkin> findFirstByOrderByTime();
+
     List<Checkin> findByPersonOrderByTime(Person person);
 
     List<Checkin> findByPersonAndCheckedInFalseOrderByTime(Person person);
 
     List<Checkin> findByPersonAndCheckedInFalseAndTimeBetweenOrderByTimeDesc(Person person, LocalDateTime start, LocalDateTime end);
 
+    @RestResource(exported = false)
+    @Query("select new at.refugeescode.checkin.domain.Presence(c.person.id, c.time, c.checkedIn) from Checkin c " +
+            "where not exists (select l from Checkin l where l.person = c.person " +
+            "and (l.time > c.time or l.time = c.time and l.id > c.id)) " +
+            "order by c.id")
+    List<Presence> findAllPresences();
+
+    @RestResource(exported = false)
+    @Query("select c from Checkin c join fetch c.person where c.checkedIn = true " +
+            "and not exists (select l from Checkin l where l.person = c.person " +
+            "and (l.time > c.time or l.time = c.time and l.id > c.id))")
+    List<Checkin> findOpenCheckIns();
+
+    /**
+     * Like {@link #findOpenCheckIns}, for the given people only.
+     */
+    @RestResource(exported = false)
+    @Query("select c from Checkin c join fetch c.person where c.checkedIn = true and c.person.id in ?1 " +
+            "and not exists (select l from Checkin l where l.person = c.person " +
+            "and (l.time > c.time or l.time = c.time and l.id > c.id))")
+    List<Checkin> findOpenCheckInsOfPeople(Collection<Long> personIds);
+
+    /**
+     * The last check of each of the given people.
+     */
+    @RestResource(exported = false)
+    @Query("select c from Checkin c join fetch c.person where c.person.id in ?1 " +
+            "and not exists (select l from Checkin l where l.person = c.person " +
+            "and (l.time > c.time or l.time = c.time and l.id > c.id))")
+    List<Checkin> findLastChecksOfPeople(Collection<Long> personIds);
+
+    /**
+     * The checks with an id above the given one, as written by any instance since.
+     */
+    @RestResource(exported = false)
+    @Query("select c from Checkin c join fetch c.person where c.id > ?1")
+    List<Checkin> findAfterId(Long id);
+
+    @RestResource(exported = false)
+    Optional<Checkin> findFirstByOrderByIdDesc();
+
+    /**
+     * The check with the given id as stored, without flushing changes to it that have not been saved yet.
+     */
+    @RestResource(exported = false)
+    @QueryHints(@QueryHint(name = "org.hibernate.flushMode", value = "COMMIT"))
+    @Query("select new at.refugeescode.checkin.domain.CheckOutDuration(c.person.id, c.time, c.duration) from Checkin c " +
+            "where c.id = ?1")
+    CheckOutDuration findStoredCheckOutDuration(Long id);
+
+    /**
+     * Tallies the checks from the given start, inclusive, to the given end, exclusive.
+     */
+    @RestResource(exported = false)
+    @Query("select new at.refugeescode.checkin.domain.CheckinTally(count(c), max(c.id), max(c.time)) from Checkin c " +
+            "where c.time >= ?1 and c.time < ?2")
+    CheckinTally tally(LocalDateTime start, LocalDateTime end);
+
+    @RestResource(exported = false)
+    @Query("select new at.refugeescode.checkin.domain.CheckOutDuration(c.person.id, c.time, c.duration) from Checkin c " +
+            "where c.checkedIn = false and c.time >= ?1 and c.time < ?2")
+    List<CheckOutDuration> findCheckOutDurations(LocalDateTime start, LocalDateTime end);
+
+    @RestResource(exported = false)
+    @Query("select new at.refugeescode.checkin.domain.CheckOutDuration(c.person.id, c.time, c.duration) from Checkin c " +
+            "where c.person = ?1 and c.checkedIn = false and c.time >= ?2 and c.time < ?3")
+    List<CheckOutDuration> findCheckOutDurationsOfPerson(Person person, LocalDateTime start, LocalDateTime end);
+
+    /**
+     * Returns the log from the given position backwards, newest first: checks at or after {@code from} that come
+     * before {@code (time, id)}. Starts from the position on the {@code (time, id)} index instead of skipping an
+     * offset. The redundant {@code c.time <= ?2} is the upper bound of the index scan, which the database cannot take
+     * from the or; the or itself is a filter, not a seek, so a page still reads more rows than it returns.
+     */
+    @RestResource(exported = false)
+    @Query("select new at.refugeescode.checkin.domain.CheckLogEntry(c.id, p.name, c.time, c.duration, c.checkedIn) " +
+            "from Checkin c join c.person p " +
+            "where c.time >= ?1 and c.time <= ?2 and (c.time < ?2 or c.id < ?3) " +
+            "order by c.time desc, c.id desc")
+    List<CheckLogEntry> findLog(LocalDateTime from, LocalDateTime time, long id, Pageable pageable);
+
+    /**
+     * Like {@link #findLog}, for a single person.
+     */
+    @RestResource(exported = false)
+    @Query("select new at.refugeescode.checkin.domain.CheckLogEntry(c.id, p.name, c.time, c.duration, c.checkedIn) " +
+            "from Checkin c join c.person p " +
+            "where p.id = ?1 and c.time >= ?2 and c.time <= ?3 and (c.time < ?3 or c.id < ?4) " +
+            "order by c.time desc, c.id desc")
+    List<CheckLogEntry> findLogOfPerson(long personId, LocalDateTime from, LocalDateTime time, long id, Pageable pageable);
+
 }
@@ -0,0 +1,22 @@
+package at.refugeescode.checkin.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.time.LocalDateTime;
+
+/**
+ * The number of checks in a period, with the id and time of the latest. Ids only grow, so adding or deleting a check
+ * in the period always changes the number or the last id.
+ */
+@AllArgsConstructor
+@Getter
+@ToString
+public class CheckinTally {
+
+    private final Long count;
+    private final Long lastId;
+    private final LocalDateTime lastTime;
+
+}
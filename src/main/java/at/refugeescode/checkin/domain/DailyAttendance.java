@@ -0,0 +1,38 @@
+package at.refugeescode.checkin.domain;
+
+import lombok.*;
+
+import javax.persistence.*;
+import java.time.Duration;
+import java.time.LocalDate;
+
+/**
+ * The total duration a person was checked in on a single day, maintained alongside the check outs.
+ */
+@Entity
+@Table(uniqueConstraints = @UniqueConstraint(columnNames = {"person_id", "day"}))
+@Getter
+@Setter
+@NoArgsConstructor
+@RequiredArgsConstructor
+@ToString(exclude = "person")
+public class DailyAttendance {
+
+    @Id
+    @GeneratedValue
+    private Long id;
+
+    @NonNull
+    @ManyToOne(optional = false, fetch = FetchType.LAZY)
+    @JoinColumn(nullable = false)
+    private Person person;
+
+    @NonNull
+    @Column(nullable = false, columnDefinition = "date")
+    private LocalDate day;
+
+    @NonNull
+    @Column(nullable = false)
+    private Duration duration;
+
+}
@@ -0,0 +1,31 @@
+package at.refugeescode.checkin.domain;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.rest.core.annotation.RepositoryRestResource;
+
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.List;
+
+@RepositoryRestResource(exported = false)
+public interface DailyAttendanceRepository extends JpaRepository<DailyAttendance, Long> {
+
+    DailyAttendance findByPersonAndDay(Person person, LocalDate day);
+
+    List<DailyAttendance> findByDayAndPersonIn(LocalDate day, Collection<Person> people);
+
+    @Query("select new at.refugeescode.checkin.domain.DailyDuration(d.person.id, d.day, d.duration) from DailyAttendance d " +
+            "where d.day >= ?1 and d.day < ?2")
+    List<DailyDuration> findDailyDurations(LocalDate start, LocalDate end);
+
+    @Query("select new at.refugeescode.checkin.domain.DailyDuration(d.person.id, d.day, d.duration) from DailyAttendance d " +
+            "where d.day >= ?1 and d.day < ?2 and d.person.id in ?3")
+    List<DailyDuration> findDailyDurationsOfPeople(LocalDate start, LocalDate end, Collection<Long> personIds);
+
+    @Modifying
+    @Query("delete from DailyAttendance d where d.person = ?1 and d.day >= ?2 and d.day < ?3")
+    int deleteByPersonAndDays(Person person, LocalDate start, LocalDate end);
+
+}
@@ -0,0 +1,22 @@
+package at.refugeescode.checkin.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.time.Duration;
+import java.time.LocalDate;
+
+/**
+ * The total duration of a person on a single day, as read from the daily attendance rollup.
+ */
+@AllArgsConstructor
+@Getter
+@ToString
+public class DailyDuration {
+
+    private final Long personId;
+    private final LocalDate day;
+    private final Duration duration;
+
+}
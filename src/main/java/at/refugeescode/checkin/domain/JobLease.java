@@ -0,0 +1,50 @@
+package at.refugeescode.checkin.domain;
+
+import lombok.*;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import java.time.LocalDateTime;
+
+/**
+ * The lease of a scheduled job, which lets only one instance run the job per trigger. The token grows with every
+ * lease, so an instance can tell whether the lease it acquired is still its own.
+ */
+@Entity
+@Getter
+@Setter
+@NoArgsConstructor
+@RequiredArgsConstructor
+@ToString
+public class JobLease {
+
+    @Id
+    @NonNull
+    private String name;
+
+    @Column
+    private String owner;
+
+    private long token;
+
+    /**
+     * The time the last leased run of the job was triggered for.
+     */
+    @Column
+    private LocalDateTime triggerTime;
+
+    /**
+     * The trigger time of the last leased run that has finished, so that a run whose holder crashed is taken over once
+     * its lease has expired.
+     */
+    @Column
+    private LocalDateTime completedTrigger;
+
+    @Column
+    private LocalDateTime acquiredAt;
+
+    @Column
+    private LocalDateTime expiresAt;
+
+}
@@ -0,0 +1,56 @@
+package at.refugeescode.checkin.domain;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.rest.core.annotation.RepositoryRestResource;
+
+import javax.persistence.LockModeType;
+import java.time.LocalDateTime;
+
+@RepositoryRestResource(exported = false)
+public interface JobLeaseRepository extends JpaRepository<JobLease, String> {
+
+    /**
+     * Creates the lease of a job that has never been leased. Fails if another instance has just created it, where
+     * saving a new lease would overwrite that one.
+     */
+    @Modifying
+    @Query(value = "insert into job_lease (name, token) values (?1, 0)", nativeQuery = true)
+    void create(String name);
+
+    /**
+     * Locks the lease of a job until the end of the current transaction.
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select l from JobLease l where l.name = ?1")
+    JobLease lock(String name);
+
+    /**
+     * Takes the lease of a job for a trigger it has not run for yet, or whose run has not finished, unless another
+     * instance holds a lease that has not expired. Clears the persistence context, so that the new token can be read
+     * after a {@link #lock}.
+     */
+    @Modifying(clearAutomatically = true)
+    @Query("update JobLease l set l.owner = ?2, l.token = l.token + 1, l.triggerTime = ?3, l.acquiredAt = ?4, l.expiresAt = ?5 " +
+            "where l.name = ?1 and (l.triggerTime is null or l.triggerTime < ?3 " +
+            "or l.triggerTime = ?3 and (l.completedTrigger is null or l.completedTrigger < ?3)) " +
+            "and (l.expiresAt is null or l.expiresAt <= ?4)")
+    int acquire(String name, String owner, LocalDateTime triggerTime, LocalDateTime now, LocalDateTime expiresAt);
+
+    /**
+     * Extends the lease with the given token, unless it has expired or has been taken over.
+     */
+    @Modifying
+    @Query("update JobLease l set l.expiresAt = ?4 where l.name = ?1 and l.token = ?2 and l.owner = ?3 and l.expiresAt > ?5")
+    int renew(String name, long token, String owner, LocalDateTime expiresAt, LocalDateTime now);
+
+    /**
+     * Releases the lease with the given token, and records its trigger as finished.
+     */
+    @Modifying
+    @Query("update JobLease l set l.owner = null, l.expiresAt = ?3, l.completedTrigger = l.triggerTime where l.name = ?1 and l.token = ?2")
+    int release(String name, long token, LocalDateTime now);
+
+}
@@ -0,0 +1,76 @@
+package at.refugeescode.checkin.domain;
+
+import lombok.*;
+
+import javax.persistence.*;
+import java.time.LocalDateTime;
+
+/**
+ * A mail waiting in, or already delivered from, the persistent outbox.
+ */
+@Entity
+@Getter
+@Setter
+@NoArgsConstructor
+@RequiredArgsConstructor
+@ToString(exclude = "text")
+public class OutboxMail {
+
+    public enum Status {
+        PENDING, SENDING, SENT, FAILED
+    }
+
+    @Id
+    @GeneratedValue
+    private Long id;
+
+    @NonNull
+    @Column(nullable = false)
+    private String sender;
+
+    @NonNull
+    @Column(nullable = false)
+    private String recipient;
+
+    @Column
+    private String replyTo;
+
+    @Column
+    private String bcc;
+
+    @NonNull
+    @Column(nullable = false)
+    private String subject;
+
+    @NonNull
+    @Column(nullable = false, columnDefinition = "text")
+    private String text;
+
+    @NonNull
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private Status status;
+
+    private int attempts;
+
+    @NonNull
+    @Column(nullable = false)
+    private LocalDateTime createdAt;
+
+    @NonNull
+    @Column(nullable = false)
+    private LocalDateTime nextAttemptAt;
+
+    @Column
+    private String claimedBy;
+
+    @Column
+    private LocalDateTime claimedAt;
+
+    @Column
+    private LocalDateTime sentAt;
+
+    @Column(length = 1000)
+    private String lastError;
+
+}
@@ -0,0 +1,49 @@
+package at.refugeescode.checkin.domain;
+
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.data.rest.core.annotation.RepositoryRestResource;
+import org.springframework.data.rest.core.annotation.RestResource;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@RepositoryRestResource(collectionResourceRel = "outbox", path = "outbox")
+public interface OutboxMailRepository extends JpaRepository<OutboxMail, Long> {
+
+    Page<OutboxMail> findByStatusOrderByIdDesc(@Param("status") OutboxMail.Status status, Pageable pageable);
+
+    long countByStatus(@Param("status") OutboxMail.Status status);
+
+    /**
+     * Locks the next pending mails that are due. Rows locked by another instance are skipped instead of waited for,
+     * so several instances can claim batches in parallel.
+     */
+    @RestResource(exported = false)
+    @Query(value = "select * from outbox_mail where status = 'PENDING' and next_attempt_at <= ?1 " +
+            "order by id limit ?2 for update skip locked", nativeQuery = true)
+    List<OutboxMail> findAndLockDue(LocalDateTime now, int limit);
+
+    @RestResource(exported = false)
+    @Modifying
+    @Query("update OutboxMail m set m.status = 'PENDING', m.claimedBy = null, m.claimedAt = null " +
+            "where m.status = 'SENDING' and m.claimedAt < ?1")
+    int releaseClaimsBefore(LocalDateTime claimedBefore);
+
+    @Override
+    @RestResource(exported = false)
+    <S extends OutboxMail> S save(S mail);
+
+    @Override
+    @RestResource(exported = false)
+    void delete(Long id);
+
+    @Override
+    @RestResource(exported = false)
+    void delete(OutboxMail mail);
+
+}
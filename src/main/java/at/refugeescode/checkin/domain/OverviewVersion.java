@@ -0,0 +1,32 @@
+package at.refugeescode.checkin.domain;
+
+import lombok.*;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import java.time.LocalDateTime;
+
+/**
+ * The version of the overviews of all months, in a single row, so that every instance sees it move when people or
+ * checks are changed in a way their months do not tell.
+ */
+@Entity
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@ToString
+public class OverviewVersion {
+
+    public static final long ID = 1;
+
+    @Id
+    private Long id;
+
+    private long number;
+
+    @Column(nullable = false)
+    private LocalDateTime modified;
+
+}
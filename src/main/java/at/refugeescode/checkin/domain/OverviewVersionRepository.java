@@ -0,0 +1,31 @@
+package at.refugeescode.checkin.domain;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.rest.core.annotation.RepositoryRestResource;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+
+@RepositoryRestResource(exported = false)
+public interface OverviewVersionRepository extends JpaRepository<OverviewVersion, Long> {
+
+    /**
+     * Creates the version on the first start. Fails if another instance has just created it, where saving a new
+     * version would reset that one.
+     */
+    @Transactional
+    @Modifying
+    @Query(value = "insert into overview_version (id, number, modified) values (1, 0, current_timestamp)", nativeQuery = true)
+    void create();
+
+    /**
+     * Moves the version within the current transaction, so that it only moves for others along with the change.
+     */
+    @Transactional
+    @Modifying
+    @Query("update OverviewVersion v set v.number = v.number + 1, v.modified = ?1 where v.id = 1")
+    int bump(LocalDateTime modified);
+
+}
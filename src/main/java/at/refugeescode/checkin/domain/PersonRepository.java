@@ -1,7 +1,12 @@
 package at.refugeescode.checkin.domain;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.rest.core.annotation.RepositoryRestResource;
+import org.springframework.data.rest.core.annotation.RestResource;
+
+import javax.persistence.LockModeType;
 
 import java.util.List;
 
@@ -12,4 +17,12 @@ public interface PersonRepository extends JpaRepository<Person, Long> {
 
     List<Person> findAllByOrderByName();
 
+    /**
+     * Locks the person until the end of the current transaction.
+     */
+    @RestResource(exported = false)
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select p from Person p where p.id = ?1")
+    Person lock(Long id);
+
 }
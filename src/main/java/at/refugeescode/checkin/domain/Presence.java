@@ -0,0 +1,26 @@
+package at.refugeescode.checkin.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.time.LocalDateTime;
+
+/**
+ * The most recent check of a person, as kept by the presence index.
+ */
+@AllArgsConstructor
+@Getter
+@EqualsAndHashCode
+@ToString
+public class Presence {
+
+    private final Long personId;
+    private final LocalDateTime time;
+    private final boolean checkedIn;
+
+    public static Presence of(Checkin checkin) {
+        return new Presence(checkin.getPerson().getId(), checkin.getTime(), checkin.isCheckedIn());
+    }
+}
@@ -0,0 +1,18 @@
+package at.refugeescode.checkin.dto;
+
+import at.refugeescode.checkin.domain.CheckLogEntry;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+
+@AllArgsConstructor
+@Getter
+public class CheckLog {
+
+    protected List<CheckLogEntry> entries;
+    /**
+     * The cursor of the next page, or null if this is the last page.
+     */
+    protected String next;
+}
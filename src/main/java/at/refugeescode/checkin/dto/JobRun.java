@@ -0,0 +1,41 @@
+package at.refugeescode.checkin.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * A finished run of a scheduled job.
+ */
+@AllArgsConstructor
+@Getter
+public class JobRun {
+
+    public enum Outcome {
+        SUCCEEDED, FAILED, SKIPPED
+    }
+
+    protected String job;
+    protected LocalDateTime start;
+    protected long millis;
+    protected Outcome outcome;
+    /**
+     * The message of the exception that failed the run, if any.
+     */
+    protected String error;
+    /**
+     * The number of items the job processed, by kind, e.g. the number of people it checked out.
+     */
+    protected Map<String, Long> items;
+    /**
+     * Whether the run took longer than its budget, or went on past its next trigger.
+     */
+    protected boolean overrun;
+    /**
+     * The other jobs that were running when this run started.
+     */
+    protected Collection<String> overlapping;
+}
@@ -0,0 +1,18 @@
+package at.refugeescode.checkin.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.time.Duration;
+
+/**
+ * The status of a person in the public summary, with the same properties as the PersonStatusProjection.
+ */
+@AllArgsConstructor
+@Getter
+public class PersonStatus {
+
+    protected String name;
+    protected boolean checkedIn;
+    protected Duration lastDuration;
+}
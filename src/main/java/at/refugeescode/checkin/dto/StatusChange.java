@@ -0,0 +1,23 @@
+package at.refugeescode.checkin.dto;
+
+import at.refugeescode.checkin.domain.Checkin;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.time.LocalDateTime;
+
+/**
+ * A new check of a person, as pushed to the activity stream. The name is the same as in the public summary.
+ */
+@AllArgsConstructor
+@Getter
+public class StatusChange {
+
+    protected String name;
+    protected boolean checkedIn;
+    protected LocalDateTime time;
+
+    public static StatusChange of(Checkin checkin) {
+        return new StatusChange(checkin.getPerson().getShortName(), checkin.isCheckedIn(), checkin.getTime());
+    }
+}
@@ -0,0 +1,26 @@
+package at.refugeescode.checkin.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.LocalDateTime;
+
+/**
+ * A tap that a kiosk buffered while it was offline, with the time it was actually made.
+ */
+@NoArgsConstructor
+@AllArgsConstructor
+@Getter
+@Setter
+public class Tap {
+
+    protected String uid;
+    protected LocalDateTime time;
+    protected String kioskId;
+    /**
+     * Unique per tap, so that a tap replayed twice is only recorded once.
+     */
+    protected String tapId;
+}
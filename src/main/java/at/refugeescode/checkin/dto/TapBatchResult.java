@@ -0,0 +1,22 @@
+package at.refugeescode.checkin.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+@AllArgsConstructor
+@Getter
+public class TapBatchResult {
+
+    /**
+     * The number of taps that have been recorded.
+     */
+    protected int recorded;
+    /**
+     * The number of taps that had been recorded before, by an earlier replay.
+     */
+    protected int duplicates;
+    /**
+     * The number of taps without uid, time or tap id, or with a time in the future.
+     */
+    protected int rejected;
+}
@@ -0,0 +1,46 @@
+package at.refugeescode.checkin.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+@AllArgsConstructor
+@Getter
+public class WeeklySummaryReport {
+
+    /**
+     * Whether the mails have only been rendered, but not queued.
+     */
+    protected boolean dryRun;
+    /**
+     * The number of people whose summary has been rendered.
+     */
+    protected int people;
+    /**
+     * The number of chunks of people that have been aggregated and rendered in parallel.
+     */
+    protected int chunks;
+    /**
+     * The number of personal mails that have been queued.
+     */
+    protected int mails;
+    /**
+     * The time spent reading and adding up the daily totals, summed over all workers.
+     */
+    protected long aggregateMillis;
+    /**
+     * The time spent rendering the mails, summed over all workers.
+     */
+    protected long renderMillis;
+    /**
+     * The wall-clock time of aggregating and rendering all chunks in parallel.
+     */
+    protected long parallelMillis;
+    /**
+     * The time spent writing the mails to the outbox.
+     */
+    protected long enqueueMillis;
+    /**
+     * The wall-clock time of the whole run.
+     */
+    protected long totalMillis;
+}
@@ -0,0 +1,275 @@
+package at.refugeescode.checkin.service;
+
+import at.refugeescode.checkin.dto.StatusChange;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Pushes check in activity to connected dashboards as server-sent events. A client first gets a {@code snapshot}
+ * event with the public summary, then a {@code change} event whenever the last check of a person changes, on this
+ * or any other instance, and a heartbeat comment in between.
+ * <p>
+ * Publishing never blocks: events are offered to a bounded queue per client and written by a small pool of sender
+ * threads, one client at a time. A client whose queue is full is too slow to keep up and is disconnected, so that it
+ * reconnects and starts over with a new snapshot.
+ */
+@Service
+@Slf4j
+public class ActivityStream {
+
+    @Value("${checkin.stream.maxClients:100}")
+    private int maxClients;
+    @Value("${checkin.stream.queueSize:100}")
+    private int queueSize;
+    @Value("${checkin.stream.senders:2}")
+    private int senders;
+    @Value("${checkin.stream.timeout:1800000}")
+    private long timeout;
+
+    /**
+     * The mapper of the REST API, so that events look like the other responses, but without line breaks, which would
+     * end the data of an event.
+     */
+    @Autowired
+    @Qualifier("objectMapper")
+    private ObjectMapper objectMapper;
+    private ObjectWriter writer;
+
+    private final Collection<Client> clients = new CopyOnWriteArraySet<>();
+    /**
+     * A permit per client that may connect, taken before the client is added and given back when it is removed.
+     */
+    private Semaphore slots;
+    private ExecutorService executor;
+
+    private final AtomicLong connected = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+    private final AtomicLong sent = new AtomicLong();
+
+    @PostConstruct
+    protected void initialize() {
+        writer = objectMapper.writer().without(SerializationFeature.INDENT_OUTPUT);
+        slots = new Semaphore(maxClients);
+        executor = Executors.newFixedThreadPool(senders,
+                new ThreadFactoryBuilder().setNameFormat("ActivityStream-%d").setDaemon(true).build());
+    }
+
+    @PreDestroy
+    protected void shutdown() throws InterruptedException {
+        disconnectAll();
+        executor.shutdown();
+        executor.awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Connects a new client, which first gets the given snapshot. Changes that are published while the snapshot is
+     * taken follow it, so the client misses none.
+     *
+     * @return the emitter of the client, or null if the maximum number of clients is connected
+     */
+    public SseEmitter connect(Supplier<?> snapshot) {
+        if (!slots.tryAcquire()) {
+            rejected.incrementAndGet();
+            return null;
+        }
+
+        Client client = new Client(new SseEmitter(timeout), new LinkedBlockingDeque<>(queueSize));
+        client.emitter.onCompletion(() -> remove(client));
+        client.emitter.onTimeout(() -> remove(client));
+        clients.add(client);
+        connected.incrementAndGet();
+
+        if (!client.queue.offerFirst(event("snapshot", snapshot.get())))
+            evict(client);
+        client.started = true;
+        schedule(client);
+
+        return client.emitter;
+    }
+
+    /**
+     * Publishes the given changes, which have been committed, see {@link PresenceIndex}.
+     */
+    public void publish(List<StatusChange> changes) {
+        if (changes.isEmpty() || clients.isEmpty())
+            return;
+        changes.forEach(change -> offer(event("change", change)));
+    }
+
+    /**
+     * Keeps idle connections open through proxies, and lets the stream notice clients that have gone away.
+     */
+    @Scheduled(fixedRateString = "${checkin.stream.heartbeat:15000}")
+    public void heartbeat() {
+        offer(new Event(null, null, "heartbeat"));
+    }
+
+    /**
+     * Disconnects every client, which may reconnect.
+     */
+    void disconnectAll() {
+        for (Client client : clients) {
+            if (remove(client)) {
+                client.evicted = true;
+                schedule(client);
+            }
+        }
+    }
+
+    public int size() {
+        return clients.size();
+    }
+
+    public Map<String, Number> getMetrics() {
+        Map<String, Number> metrics = new LinkedHashMap<>();
+        metrics.put("clients", clients.size());
+        metrics.put("connected", connected.get());
+        metrics.put("rejected", rejected.get());
+        metrics.put("evicted", evicted.get());
+        metrics.put("sent", sent.get());
+        return metrics;
+    }
+
+    /**
+     * Serializes the data once, instead of once per client.
+     */
+    private Event event(String name, Object data) {
+        try {
+            return new Event(name, writer.writeValueAsString(data), null);
+        } catch (JsonProcessingException ex) {
+            throw new IllegalStateException("Failed to serialize " + name + " event", ex);
+        }
+    }
+
+    private void offer(Event event) {
+        for (Client client : clients) {
+            if (client.queue.offer(event))
+                schedule(client);
+            else
+                evict(client);
+        }
+    }
+
+    /**
+     * Removes the client and gives back its slot, once, however many of the callbacks, the publisher and the sender
+     * notice that it is gone.
+     */
+    private boolean remove(Client client) {
+        if (!clients.remove(client))
+            return false;
+        slots.release();
+        return true;
+    }
+
+    private void evict(Client client) {
+        if (remove(client)) {
+            evicted.incrementAndGet();
+            log.warn("Disconnecting a stream client that cannot keep up");
+        }
+        // the sender completes the emitter, so that a blocked send does not block the publisher
+        client.evicted = true;
+        schedule(client);
+    }
+
+    private void schedule(Client client) {
+        if (client.started && client.scheduled.compareAndSet(false, true))
+            executor.execute(() -> send(client));
+    }
+
+    private void send(Client client) {
+        do {
+            try {
+                if (client.evicted) {
+                    client.queue.clear();
+                    client.emitter.complete();
+                }
+                Event event;
+                while (!client.evicted && (event = client.queue.poll()) != null) {
+                    client.emitter.send(event.builder());
+                    sent.incrementAndGet();
+                }
+            } catch (IOException | RuntimeException ex) {
+                // the client has gone away, or the emitter has already completed; anything else would otherwise leave
+                // the client scheduled for good, and it would never get another event
+                log.debug("Stream client disconnected: {}", ex.toString());
+                remove(client);
+                client.evicted = true;
+                client.queue.clear();
+            }
+            client.scheduled.set(false);
+        } while (!client.evicted && !client.queue.isEmpty() && client.scheduled.compareAndSet(false, true));
+    }
+
+    /**
+     * An event as queued to every client. An {@link SseEmitter.SseEventBuilder} cannot be shared, because building it
+     * changes it, so every client gets a builder of its own.
+     */
+    private static class Event {
+
+        private final String name;
+        private final String data;
+        private final String comment;
+
+        private Event(String name, String data, String comment) {
+            this.name = name;
+            this.data = data;
+            this.comment = comment;
+        }
+
+        private SseEmitter.SseEventBuilder builder() {
+            SseEmitter.SseEventBuilder builder = SseEmitter.event();
+            if (comment != null)
+                builder.comment(comment);
+            if (name != null)
+                builder.name(name);
+            if (data != null)
+                builder.data(data, MediaType.TEXT_PLAIN);
+            return builder;
+        }
+    }
+
+    private static class Client {
+
+        private final SseEmitter emitter;
+        private final BlockingDeque<Event> queue;
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private volatile boolean started;
+        private volatile boolean evicted;
+
+        private Client(SseEmitter emitter, BlockingDeque<Event> queue) {
+            this.emitter = emitter;
+            this.queue = queue;
+        }
+    }
+
+}
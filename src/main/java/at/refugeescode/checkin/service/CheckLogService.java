@@ -0,0 +1,102 @@
+package at.refugeescode.checkin.service;
+
+import at.refugeescode.checkin.domain.CheckLogEntry;
+import at.refugeescode.checkin.domain.CheckinRepository;
+import at.refugeescode.checkin.dto.CheckLog;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Pages through the check in log, newest first, with a cursor instead of an offset. The cursor is the time and id
+ * of the last entry of the previous page, so a page never depends on how many pages came before it and no count
+ * query is needed.
+ */
+@Service
+@RequiredArgsConstructor(onConstructor = @__(@Autowired))
+public class CheckLogService {
+
+    public static final int MAX_PAGE_SIZE = 500;
+
+    private static final LocalDateTime BEGINNING = LocalDateTime.of(1970, 1, 1, 0, 0);
+    private static final LocalDateTime END = LocalDateTime.of(9999, 12, 31, 0, 0);
+
+    @NonNull
+    private final CheckinRepository checkinRepository;
+
+    /**
+     * Returns a page of the log with checks from {@code from} (inclusive) until {@code to} (exclusive).
+     *
+     * @param cursor   the cursor returned with the previous page, or null for the first page
+     * @param size     the page size, at most {@link #MAX_PAGE_SIZE}
+     * @param personId the person whose checks to return, or null for everybody
+     * @param from     the earliest time to return, or null
+     * @param to       the time to return checks before, or null
+     * @throws IllegalArgumentException if the cursor is invalid
+     */
+    @Transactional(readOnly = true)
+    public CheckLog page(String cursor, int size, Long personId, LocalDateTime from, LocalDateTime to) {
+        size = Math.max(1, Math.min(size, MAX_PAGE_SIZE));
+        from = from != null ? from : BEGINNING;
+
+        // without a cursor, start right before the end of the range
+        LocalDateTime time = to != null ? to : END;
+        long id = Long.MIN_VALUE;
+        if (cursor != null) {
+            Position position = decode(cursor);
+            time = position.time;
+            id = position.id;
+        }
+
+        // one extra row tells whether there is a next page
+        PageRequest pageRequest = new PageRequest(0, size + 1);
+        List<CheckLogEntry> entries = personId == null
+                ? checkinRepository.findLog(from, time, id, pageRequest)
+                : checkinRepository.findLogOfPerson(personId, from, time, id, pageRequest);
+
+        String next = null;
+        if (entries.size() > size) {
+            entries = entries.subList(0, size);
+            CheckLogEntry last = entries.get(size - 1);
+            next = encode(last.getTime(), last.getId());
+        }
+
+        return new CheckLog(entries, next);
+    }
+
+    private static String encode(LocalDateTime time, long id) {
+        String position = time + "|" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(position.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static Position decode(String cursor) {
+        try {
+            String position = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int separator = position.indexOf('|');
+            return new Position(LocalDateTime.parse(position.substring(0, separator)), Long.parseLong(position.substring(separator + 1)));
+        } catch (IllegalArgumentException | IndexOutOfBoundsException | DateTimeParseException ex) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor, ex);
+        }
+    }
+
+    private static class Position {
+
+        private final LocalDateTime time;
+        private final long id;
+
+        private Position(LocalDateTime time, long id) {
+            this.time = time;
+            this.id = id;
+        }
+    }
+
+}
@@ -1,23 +1,40 @@
 package at.refugeescode.checkin.service;
 
+import at.refugeescode.checkin.config.JobMonitor;
 import at.refugeescode.checkin.domain.Checkin;
 import at.refugeescode.checkin.domain.CheckinRepository;
+import at.refugeescode.checkin.domain.DailyDuration;
 import at.refugeescode.checkin.domain.Person;
 import at.refugeescode.checkin.domain.PersonRepository;
+import at.refugeescode.checkin.domain.Presence;
+import at.refugeescode.checkin.dto.Attendance;
+import at.refugeescode.checkin.dto.Overview;
+import at.refugeescode.checkin.dto.PersonStatus;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.google.common.collect.Lists;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.time.*;
 import java.time.format.DateTimeFormatter;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Optional;
+import java.util.*;
+import java.util.concurrent.locks.Lock;
+import java.util.stream.Collectors;
 
 @Service
 @RequiredArgsConstructor(onConstructor = @__(@Autowired))
@@ -29,24 +46,67 @@ public class CheckinService {
             "You have been automatically checked out at midnight.<br/></br/>" +
             "Your refugees{code}-Team";
 
+    private static final int MAX_ATTEMPTS = 3;
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
     @NonNull
     private final CheckinRepository checkinRepository;
     @NonNull
     private final PersonRepository personRepository;
     @NonNull
     private final MailService mailService;
+    @NonNull
+    private final PresenceIndex presenceIndex;
+    @NonNull
+    private final DailyAttendanceService dailyAttendanceService;
+    @NonNull
+    private final OverviewCache overviewCache;
+    @NonNull
+    private final UidLocks uidLocks;
+    @NonNull
+    private final PersonCache personCache;
+    @NonNull
+    private final PlatformTransactionManager transactionManager;
+    @NonNull
+    private final JobMonitor jobMonitor;
+    @NonNull
+    private final JobLeases jobLeases;
 
     @Value("${checkin.mail.webmaster}")
     private String webmaster;
+    @Value("${checkin.checkOut.chunkSize:500}")
+    private int checkOutChunkSize;
+
+    private TransactionTemplate newCheckTransaction;
+
+    @PostConstruct
+    protected void initialize() {
+        newCheckTransaction = new TransactionTemplate(transactionManager);
+        newCheckTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
 
     @Transactional(readOnly = true)
     public Optional<Checkin> lastCheck(Person person) {
-        return checkinRepository.findFirstByPersonOrderByTimeDesc(person);
+        return checkinRepository.findFirstByPersonOrderByTimeDescIdDesc(person);
     }
 
-    @Transactional(readOnly = true)
     public boolean isCheckedIn(Person person) {
-        return lastCheck(person).map(Checkin::isCheckedIn).orElse(false);
+        return presenceIndex.get(person).map(Presence::isCheckedIn).orElse(false);
+    }
+
+    @Transactional(readOnly = true)
+    public Overview overview(YearMonth yearMonth) {
+
+        List<Person> people = personRepository.findAll();
+        Map<Long, List<String>> durationsByPerson = overviewDurations(yearMonth);
+        List<String> emptyDurations = emptyOverviewDurations(yearMonth);
+
+        List<Attendance> attendances = new ArrayList<>();
+        for (Person person : people)
+            attendances.add(new Attendance(person.getName(), durationsByPerson.getOrDefault(person.getId(), emptyDurations)));
+
+        return new Overview(yearMonth, overviewColumns(yearMonth), attendances);
     }
 
     @Transactional(readOnly = true)
@@ -70,32 +130,140 @@ public class CheckinService {
         return columns;
     }
 
+    /**
+     * Returns the overview durations of every person with at least one check out in the given month, by person id.
+     * The daily totals of the month are read from the daily attendance rollup with a single query.
+     */
+    @Transactional(readOnly = true)
+    public Map<Long, List<String>> overviewDurations(YearMonth yearMonth) {
+
+        Map<Long, Duration[]> dailyDurationsByPerson = dailyDurations(yearMonth);
+
+        Map<Long, List<String>> durationsByPerson = new HashMap<>(dailyDurationsByPerson.size());
+        dailyDurationsByPerson.forEach((personId, dailyDurations) ->
+                durationsByPerson.put(personId, overviewDurations(yearMonth, dailyDurations)));
+        return durationsByPerson;
+    }
+
+    /**
+     * Writes the overview of the given month in columnar form, as a more compact alternative to {@link #overview}.
+     * The days of the month are described once, and the durations of every person are whole minutes instead of
+     * formatted hours:
+     * <pre>
+     * {"yearMonth": "2017-03", "days": 31, "firstDayOfWeek": 3, "weekEnds": [5, 12, 19, 26],
+     *  "names": ["..."], "minutes": [[0, 480, ...]], "weekMinutes": [[480, ...]]}
+     * </pre>
+     * {@code weekEnds} are the days that end a week, and {@code weekMinutes} holds the total of every week that ends
+     * in the month, like the week columns of the overview.
+     */
     @Transactional(readOnly = true)
-    public List<String> overviewDurations(YearMonth yearMonth, Person person) {
+    public void writeColumnarOverview(YearMonth yearMonth, OutputStream outputStream) throws IOException {
 
-        List<String> durations = new ArrayList<>(yearMonth.lengthOfMonth());
+        List<Person> people = personRepository.findAll();
+        Map<Long, Duration[]> dailyDurationsByPerson = dailyDurations(yearMonth);
+        Duration[] emptyDailyDurations = emptyDailyDurations(yearMonth);
+
+        List<Integer> weekEnds = new ArrayList<>(6);
+        for (int day = 1; day <= yearMonth.lengthOfMonth(); day++)
+            if (yearMonth.atDay(day).getDayOfWeek() == DayOfWeek.SUNDAY)
+                weekEnds.add(day);
+
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(outputStream)) {
+            generator.writeStartObject();
+            generator.writeStringField("yearMonth", yearMonth.toString());
+            generator.writeNumberField("days", yearMonth.lengthOfMonth());
+            generator.writeNumberField("firstDayOfWeek", yearMonth.atDay(1).getDayOfWeek().getValue());
+
+            generator.writeArrayFieldStart("weekEnds");
+            for (int weekEnd : weekEnds)
+                generator.writeNumber(weekEnd);
+            generator.writeEndArray();
+
+            generator.writeArrayFieldStart("names");
+            for (Person person : people)
+                generator.writeString(person.getName());
+            generator.writeEndArray();
+
+            int[] minutes = new int[yearMonth.lengthOfMonth()];
+            int[] weekMinutes = new int[weekEnds.size()];
+
+            generator.writeArrayFieldStart("minutes");
+            for (Person person : people) {
+                Duration[] dailyDurations = dailyDurationsByPerson.getOrDefault(person.getId(), emptyDailyDurations);
+                for (int i = 0; i < dailyDurations.length; i++)
+                    minutes[i] = (int) ceilMinutes(dailyDurations[i]);
+                generator.writeArray(minutes, 0, minutes.length);
+            }
+            generator.writeEndArray();
+
+            generator.writeArrayFieldStart("weekMinutes");
+            for (Person person : people) {
+                Duration[] dailyDurations = dailyDurationsByPerson.getOrDefault(person.getId(), emptyDailyDurations);
+                Duration weekTotal = Duration.ZERO;
+                int week = 0;
+                for (int i = 0; i < dailyDurations.length && week < weekMinutes.length; i++) {
+                    weekTotal = weekTotal.plus(dailyDurations[i]);
+                    if (i + 1 == weekEnds.get(week)) {
+                        weekMinutes[week++] = (int) ceilMinutes(weekTotal);
+                        weekTotal = Duration.ZERO;
+                    }
+                }
+                generator.writeArray(weekMinutes, 0, weekMinutes.length);
+            }
+            generator.writeEndArray();
+
+            generator.writeEndObject();
+        }
+    }
+
+    /**
+     * Returns the daily durations of every person with at least one check out in the given month, by person id.
+     * The daily totals of the month are read from the daily attendance rollup with a single query.
+     */
+    private Map<Long, Duration[]> dailyDurations(YearMonth yearMonth) {
 
         LocalDate startOfMonth = yearMonth.atDay(1);
         LocalDate startOfNextMonth = yearMonth.plusMonths(1).atDay(1);
 
-        Duration weekTotal = Duration.ZERO;
+        Map<Long, Duration[]> dailyDurationsByPerson = new HashMap<>();
 
-        for (LocalDate day = startOfMonth; day.isBefore(startOfNextMonth); day = day.plusDays(1)) {
+        for (DailyDuration dailyDuration : dailyAttendanceService.dailyDurations(startOfMonth, startOfNextMonth)) {
+            Duration[] dailyDurations = dailyDurationsByPerson.computeIfAbsent(dailyDuration.getPersonId(), id -> emptyDailyDurations(yearMonth));
+            int day = dailyDuration.getDay().getDayOfMonth() - 1;
+            dailyDurations[day] = dailyDurations[day].plus(dailyDuration.getDuration());
+        }
+
+        return dailyDurationsByPerson;
+    }
+
+    /**
+     * Returns the overview durations for a person without any check outs in the given month.
+     */
+    public List<String> emptyOverviewDurations(YearMonth yearMonth) {
+        return overviewDurations(yearMonth, emptyDailyDurations(yearMonth));
+    }
+
+    private static Duration[] emptyDailyDurations(YearMonth yearMonth) {
+        Duration[] dailyDurations = new Duration[yearMonth.lengthOfMonth()];
+        Arrays.fill(dailyDurations, Duration.ZERO);
+        return dailyDurations;
+    }
+
+    private static List<String> overviewDurations(YearMonth yearMonth, Duration[] dailyDurations) {
+
+        List<String> durations = new ArrayList<>(yearMonth.lengthOfMonth() + 6);
 
-            LocalDateTime startOfDay = day.atStartOfDay();
-            LocalDateTime startOfNextDay = day.plusDays(1).atStartOfDay();
+        Duration weekTotal = Duration.ZERO;
 
-            List<Checkin> checkins = checkinRepository.findByPersonAndCheckedInFalseAndTimeBetweenOrderByTimeDesc(person, startOfDay, startOfNextDay);
+        for (int i = 0; i < dailyDurations.length; i++) {
 
-            Duration duration = Duration.ZERO;
-            for (Checkin checkin : checkins)
-                duration = duration.plus(checkin.getDuration());
+            Duration duration = dailyDurations[i];
 
             durations.add(formatDuration(duration));
 
             weekTotal = weekTotal.plus(duration);
 
-            if (day.getDayOfWeek() == DayOfWeek.SUNDAY) {
+            if (yearMonth.atDay(i + 1).getDayOfWeek() == DayOfWeek.SUNDAY) {
                 durations.add(formatDuration(weekTotal));
                 weekTotal = Duration.ZERO;
             }
@@ -116,23 +284,72 @@ public class CheckinService {
     }
 
 
-    @Transactional(readOnly = true)
     public Duration getLastCheckInTime(Person person) {
         LocalDateTime now = LocalDateTime.now();
-        Optional<LocalDateTime> lastTime = lastCheck(person).map(Checkin::getTime);
+        Optional<LocalDateTime> lastTime = presenceIndex.get(person).map(Presence::getTime);
         return lastTime.isPresent() ? Duration.between(lastTime.get(), now) : null;
     }
 
-    @Transactional(readOnly = false)
+    /**
+     * Returns the status of every person for the public summary. The status is read from the presence index, so
+     * there is one query for the people and none per person.
+     */
+    @Transactional(readOnly = true)
+    public List<PersonStatus> personStatuses() {
+        LocalDateTime now = LocalDateTime.now();
+        List<Person> people = personRepository.findAll();
+
+        List<PersonStatus> statuses = new ArrayList<>(people.size());
+        for (Person person : people) {
+            Optional<Presence> presence = presenceIndex.get(person);
+            statuses.add(new PersonStatus(person.getShortName(),
+                    presence.map(Presence::isCheckedIn).orElse(false),
+                    presence.map(lastCheck -> Duration.between(lastCheck.getTime(), now)).orElse(null)));
+        }
+        return statuses;
+    }
+
+    /**
+     * Records a tap of the given uid. Taps of the same uid are serialized by a striped lock, which is held until their
+     * own transaction has committed, while taps of different people run in parallel. Across nodes, the unique
+     * previous id rejects a second check following the same one, and the tap is retried with the new last check. The
+     * first check of a person has no previous id, so it locks the person in the database instead.
+     */
     public Checkin newCheck(String uid) {
-        Person person = personRepository.findByUid(uid);
+        Lock lock = uidLocks.get(uid);
+        lock.lock();
+        try {
+            for (int attempt = 1; ; attempt++) {
+                try {
+                    return newCheckTransaction.execute(status -> insertCheck(uid));
+                } catch (DataIntegrityViolationException | ConcurrencyFailureException ex) {
+                    if (attempt >= MAX_ATTEMPTS)
+                        throw ex;
+                    log.warn("Concurrent check for uid {}, retrying: {}", uid, ex.getMessage());
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Checkin insertCheck(String uid) {
+        Person person = personCache.findByUid(uid);
 
         if (person == null) {
-            String placeholder = "new-user-" + LocalDateTime.now().format(DateTimeFormatter.ISO_DATE_TIME);
-            person = personRepository.save(new Person(uid, placeholder, placeholder));
+            person = personRepository.save(placeholder(uid));
+            personCache.put(person);
+            // the new person is listed in the overview of every month
+            overviewCache.touchAll();
         }
 
         Optional<Checkin> lastCheckOptional = lastCheck(person);
+        if (!lastCheckOptional.isPresent()) {
+            // null previous ids never collide, so a concurrent first check on another node waits here, and then
+            // finds this one
+            personRepository.lock(person.getId());
+            lastCheckOptional = lastCheck(person);
+        }
         LocalDateTime now = LocalDateTime.now();
         Checkin check;
 
@@ -143,25 +360,110 @@ public class CheckinService {
             Checkin lastCheck = lastCheckOptional.get();
             Duration duration = Duration.between(lastCheck.getTime(), now);
             check = new Checkin(person, now, duration, !lastCheck.isCheckedIn());
+            check.setPreviousId(lastCheck.getId());
         }
 
-        check = checkinRepository.save(check);
+        check = checkinRepository.saveAndFlush(check);
+        dailyAttendanceService.record(check);
+        presenceIndex.update(check);
 
         return check;
     }
 
+    /**
+     * Returns a new person for an unknown uid, to be renamed by an admin later.
+     */
+    static Person placeholder(String uid) {
+        // the uid keeps placeholders of different people apart, even when they tap at the same time
+        String placeholder = "new-user-" + LocalDateTime.now().format(DateTimeFormatter.ISO_DATE_TIME) + "-" + uid;
+        return new Person(uid, placeholder, placeholder);
+    }
+
+    /**
+     * Checks out everybody who is still checked in. The open check ins are found with a single query, and the closing
+     * check outs are written in chunks.
+     */
     @Scheduled(cron = "${checkin.autoCheckOut}")
-    @Transactional(readOnly = false)
+    @Leased
     public void autoCheckOut() {
-        List<Person> people = personRepository.findAll();
-        for (Person person : people) {
-            if (isCheckedIn(person)) {
-                newCheck(person.getUid());
+        List<Checkin> openCheckIns = checkinRepository.findOpenCheckIns();
+        if (openCheckIns.isEmpty())
+            return;
 
-                mailService.sendMail(person, null, webmaster,
-                        "RefugeesCode Attendance - Forgot to check out?",
-                        String.format(FORGOT_CHECK_OUT_MESSAGE, person.getName()));
+        List<Person> people = checkOut(openCheckIns);
+
+        log.info("Automatically checked out {} people", people.size());
+        jobMonitor.count("checkedOut", people.size());
+
+        if (!people.isEmpty())
+            mailService.sendMail(people, null, webmaster,
+                    "RefugeesCode Attendance - Forgot to check out?",
+                    person -> String.format(FORGOT_CHECK_OUT_MESSAGE, person.getName()));
+    }
+
+    /**
+     * Checks out the people of the given check ins, unless they have checked again since. Every chunk is written in
+     * its own transaction, while holding the locks of its uids, so that no tap on this node comes in between. A chunk
+     * that conflicts with a tap on another node is retried, so a single tap does not fail everybody's check out.
+     *
+     * @return the people who have been checked out
+     */
+    List<Person> checkOut(List<Checkin> openCheckIns) {
+        LocalDateTime now = LocalDateTime.now();
+        List<Person> people = new ArrayList<>(openCheckIns.size());
+        for (List<Checkin> chunk : Lists.partition(openCheckIns, checkOutChunkSize))
+            people.addAll(checkOutChunk(chunk, now));
+        return people;
+    }
+
+    private List<Person> checkOutChunk(List<Checkin> checkIns, LocalDateTime now) {
+        List<Lock> locks = new ArrayList<>();
+        try {
+            for (Lock lock : uidLocks.getAll(checkIns.stream().map(checkIn -> checkIn.getPerson().getUid()).collect(Collectors.toList()))) {
+                lock.lock();
+                locks.add(lock);
             }
+
+            for (int attempt = 1; ; attempt++) {
+                try {
+                    return newCheckTransaction.execute(status -> writeCheckOuts(checkIns, now));
+                } catch (DataIntegrityViolationException | ConcurrencyFailureException ex) {
+                    if (attempt >= MAX_ATTEMPTS)
+                        throw ex;
+                    log.warn("Concurrent checks while checking out, retrying: {}", ex.getMessage());
+                }
+            }
+        } finally {
+            locks.forEach(Lock::unlock);
         }
     }
+
+    private List<Person> writeCheckOuts(List<Checkin> checkIns, LocalDateTime now) {
+        jobLeases.fence();
+
+        // somebody whose last check is another one by now has tapped since, and is skipped
+        Set<Long> stillOpen = checkinRepository.findOpenCheckInsOfPeople(checkIns.stream()
+                .map(checkIn -> checkIn.getPerson().getId()).collect(Collectors.toList()))
+                .stream().map(Checkin::getId).collect(Collectors.toSet());
+
+        List<Checkin> checkOuts = new ArrayList<>(checkIns.size());
+        List<Person> people = new ArrayList<>(checkIns.size());
+        for (Checkin checkIn : checkIns) {
+            if (!stillOpen.contains(checkIn.getId()))
+                continue;
+            Checkin checkOut = new Checkin(checkIn.getPerson(), now, Duration.between(checkIn.getTime(), now), false);
+            checkOut.setPreviousId(checkIn.getId());
+            checkOuts.add(checkOut);
+            people.add(checkIn.getPerson());
+        }
+        if (checkOuts.isEmpty())
+            return people;
+
+        checkOuts = checkinRepository.save(checkOuts);
+        checkinRepository.flush();
+        dailyAttendanceService.recordAll(checkOuts);
+        checkOuts.forEach(presenceIndex::update);
+
+        return people;
+    }
 }
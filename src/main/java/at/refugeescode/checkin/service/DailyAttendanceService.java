@@ -0,0 +1,228 @@
+package at.refugeescode.checkin.service;
+
+import at.refugeescode.checkin.domain.*;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.rest.core.annotation.HandleAfterCreate;
+import org.springframework.data.rest.core.annotation.HandleAfterDelete;
+import org.springframework.data.rest.core.annotation.HandleAfterSave;
+import org.springframework.data.rest.core.annotation.HandleBeforeDelete;
+import org.springframework.data.rest.core.annotation.HandleBeforeSave;
+import org.springframework.data.rest.core.annotation.RepositoryEventHandler;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Maintains the daily attendance rollup, which holds the total checked in duration of every person per day.
+ * Reports read the rollup instead of summing up the raw check outs. Checks that are created, changed or deleted
+ * through the REST API rebuild the days they were and are on.
+ */
+@Service
+@RepositoryEventHandler
+@RequiredArgsConstructor(onConstructor = @__(@Autowired))
+@Slf4j
+public class DailyAttendanceService {
+
+    @NonNull
+    private final DailyAttendanceRepository dailyAttendanceRepository;
+    @NonNull
+    private final CheckinRepository checkinRepository;
+    @NonNull
+    private final PersonRepository personRepository;
+    @NonNull
+    private final OverviewCache overviewCache;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    /**
+     * The check as stored before the REST API changes or deletes it.
+     */
+    private final ThreadLocal<CheckOutDuration> storedCheck = new ThreadLocal<>();
+
+    /**
+     * Adds the duration of the given check out to the day it was made on. Must be called in the transaction that
+     * saves the check out.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void record(Checkin checkOut) {
+        if (checkOut.isCheckedIn())
+            return;
+
+        LocalDate day = checkOut.getTime().toLocalDate();
+        DailyAttendance dailyAttendance = dailyAttendanceRepository.findByPersonAndDay(checkOut.getPerson(), day);
+
+        if (dailyAttendance == null)
+            dailyAttendance = new DailyAttendance(checkOut.getPerson(), day, checkOut.getDuration());
+        else
+            dailyAttendance.setDuration(dailyAttendance.getDuration().plus(checkOut.getDuration()));
+
+        dailyAttendanceRepository.save(dailyAttendance);
+    }
+
+    /**
+     * Adds the durations of the given check outs to the days they were made on, with one query per day.
+     * Must be called in the transaction that saves the check outs.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void recordAll(Collection<Checkin> checkOuts) {
+        Map<LocalDate, List<Checkin>> checkOutsByDay = checkOuts.stream()
+                .filter(checkOut -> !checkOut.isCheckedIn())
+                .collect(Collectors.groupingBy(checkOut -> checkOut.getTime().toLocalDate()));
+
+        List<DailyAttendance> dailyAttendances = new ArrayList<>();
+
+        checkOutsByDay.forEach((day, dayCheckOuts) -> {
+            List<Person> people = dayCheckOuts.stream().map(Checkin::getPerson).collect(Collectors.toList());
+
+            Map<Long, DailyAttendance> dailyAttendanceByPerson = new HashMap<>();
+            for (DailyAttendance dailyAttendance : dailyAttendanceRepository.findByDayAndPersonIn(day, people))
+                dailyAttendanceByPerson.put(dailyAttendance.getPerson().getId(), dailyAttendance);
+
+            for (Checkin checkOut : dayCheckOuts) {
+                DailyAttendance dailyAttendance = dailyAttendanceByPerson.get(checkOut.getPerson().getId());
+                if (dailyAttendance == null) {
+                    dailyAttendance = new DailyAttendance(checkOut.getPerson(), day, checkOut.getDuration());
+                    dailyAttendanceByPerson.put(checkOut.getPerson().getId(), dailyAttendance);
+                }
+                else {
+                    dailyAttendance.setDuration(dailyAttendance.getDuration().plus(checkOut.getDuration()));
+                }
+            }
+
+            dailyAttendances.addAll(dailyAttendanceByPerson.values());
+        });
+
+        dailyAttendanceRepository.save(dailyAttendances);
+    }
+
+    /**
+     * Replaces the rollup of the given person from {@code start} (inclusive) until {@code end} (exclusive) with the
+     * totals computed from the check in history, after checks in the middle of the history have changed. Must be
+     * called in the transaction that changes the checks.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void rebuild(Person person, LocalDate start, LocalDate end) {
+        dailyAttendanceRepository.deleteByPersonAndDays(person, start, end);
+
+        Map<LocalDate, Duration> totals = new HashMap<>();
+        for (CheckOutDuration checkOut : checkinRepository.findCheckOutDurationsOfPerson(person, start.atStartOfDay(), end.atStartOfDay()))
+            totals.merge(checkOut.getTime().toLocalDate(), checkOut.getDuration(), Duration::plus);
+
+        List<DailyAttendance> dailyAttendances = new ArrayList<>();
+        totals.forEach((day, duration) -> dailyAttendances.add(new DailyAttendance(person, day, duration)));
+        dailyAttendanceRepository.save(dailyAttendances);
+    }
+
+    @Transactional(readOnly = true)
+    public List<DailyDuration> dailyDurations(LocalDate start, LocalDate end) {
+        return dailyAttendanceRepository.findDailyDurations(start, end);
+    }
+
+    @Transactional(readOnly = true)
+    public List<DailyDuration> dailyDurations(LocalDate start, LocalDate end, Collection<Long> personIds) {
+        return dailyAttendanceRepository.findDailyDurationsOfPeople(start, end, personIds);
+    }
+
+    /**
+     * Replaces the whole rollup with the totals computed from the check in history, one month at a time. Every month
+     * is flushed on its own.
+     *
+     * @return the number of rows written
+     */
+    @Transactional
+    public int rebuild() {
+        log.info("Rebuilding daily attendance");
+
+        dailyAttendanceRepository.deleteAllInBatch();
+
+        Optional<Checkin> firstCheck = checkinRepository.findFirstByOrderByTime();
+        if (!firstCheck.isPresent())
+            return 0;
+
+        int rows = 0;
+        YearMonth currentMonth = YearMonth.now();
+        for (YearMonth month = YearMonth.from(firstCheck.get().getTime()); !month.isAfter(currentMonth); month = month.plusMonths(1)) {
+
+            LocalDateTime startOfMonth = month.atDay(1).atStartOfDay();
+            LocalDateTime startOfNextMonth = month.plusMonths(1).atDay(1).atStartOfDay();
+
+            Map<Long, Map<LocalDate, Duration>> totals = new HashMap<>();
+            for (CheckOutDuration checkOut : checkinRepository.findCheckOutDurations(startOfMonth, startOfNextMonth))
+                totals.computeIfAbsent(checkOut.getPersonId(), id -> new HashMap<>())
+                        .merge(checkOut.getTime().toLocalDate(), checkOut.getDuration(), Duration::plus);
+
+            List<DailyAttendance> dailyAttendances = new ArrayList<>();
+            totals.forEach((personId, dailyTotals) -> {
+                Person person = personRepository.getOne(personId);
+                dailyTotals.forEach((day, duration) -> dailyAttendances.add(new DailyAttendance(person, day, duration)));
+            });
+
+            dailyAttendanceRepository.save(dailyAttendances);
+            rows += dailyAttendances.size();
+
+            // keep the persistence context from growing with the whole history
+            entityManager.flush();
+            entityManager.clear();
+        }
+
+        overviewCache.touchAll();
+
+        log.info("Rebuilt daily attendance with {} rows", rows);
+        return rows;
+    }
+
+    /**
+     * Fills the rollup on the first start after it was introduced, when there is history but no rollup yet.
+     */
+    @EventListener
+    @Transactional
+    public void handle(ApplicationReadyEvent event) {
+        if (dailyAttendanceRepository.count() == 0 && checkinRepository.count() > 0)
+            rebuild();
+    }
+
+    @HandleBeforeSave
+    @HandleBeforeDelete
+    public void handleBefore(Checkin checkin) {
+        storedCheck.set(checkin.getId() == null ? null : checkinRepository.findStoredCheckOutDuration(checkin.getId()));
+    }
+
+    @HandleAfterCreate
+    @HandleAfterSave
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void handleAfterSave(Checkin checkin) {
+        rebuildStoredDay();
+        LocalDate day = checkin.getTime().toLocalDate();
+        rebuild(checkin.getPerson(), day, day.plusDays(1));
+    }
+
+    @HandleAfterDelete
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void handleAfterDelete(Checkin checkin) {
+        rebuildStoredDay();
+    }
+
+    private void rebuildStoredDay() {
+        CheckOutDuration stored = storedCheck.get();
+        storedCheck.remove();
+        if (stored != null) {
+            LocalDate day = stored.getTime().toLocalDate();
+            rebuild(personRepository.getOne(stored.getPersonId()), day, day.plusDays(1));
+        }
+    }
+}
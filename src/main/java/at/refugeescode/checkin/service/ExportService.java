@@ -0,0 +1,225 @@
+package at.refugeescode.checkin.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.sql.DataSource;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Exports the raw check in history with the name and email of every person. Rows are read with a forward-only
+ * cursor, {@code checkin.export.fetchSize} at a time, and written as they are read, so memory stays the same however
+ * long the range is.
+ */
+@Service
+@RequiredArgsConstructor(onConstructor = @__(@Autowired))
+@Slf4j
+public class ExportService {
+
+    private static final String[] COLUMNS = {"id", "time", "checkedIn", "duration", "personId", "name", "email"};
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    @NonNull
+    private final DataSource dataSource;
+    @NonNull
+    private final PlatformTransactionManager transactionManager;
+
+    @Value("${checkin.export.fetchSize:1000}")
+    private int fetchSize;
+
+    private JdbcTemplate jdbcTemplate;
+    private TransactionTemplate exportTransaction;
+    private final JsonFactory jsonFactory = new JsonFactory();
+
+    @PostConstruct
+    protected void initialize() {
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.setFetchSize(fetchSize);
+
+        // PostgreSQL only uses a cursor instead of reading all rows at once inside a transaction
+        exportTransaction = new TransactionTemplate(transactionManager);
+        exportTransaction.setReadOnly(true);
+    }
+
+    @Getter
+    public enum Format {
+
+        CSV("text/csv", "csv"),
+        NDJSON("application/x-ndjson", "ndjson");
+
+        private final String contentType;
+        private final String extension;
+
+        Format(String contentType, String extension) {
+            this.contentType = contentType;
+            this.extension = extension;
+        }
+    }
+
+    /**
+     * Writes the checks from {@code from} (inclusive) until {@code to} (exclusive) to the given stream, oldest first.
+     *
+     * @param personId the person whose checks to export, or null for everybody
+     * @return the number of checks written
+     */
+    public long export(Format format, Long personId, LocalDate from, LocalDate to, OutputStream outputStream) throws IOException {
+        StringBuilder sql = new StringBuilder("select c.id, c.time, c.checked_in, c.duration, p.id as person_id, p.name, p.email " +
+                "from checkin c join person p on p.id = c.person_id where c.time >= ? and c.time < ?");
+        List<Object> parameters = new ArrayList<>();
+        parameters.add(Timestamp.valueOf(from.atStartOfDay()));
+        parameters.add(Timestamp.valueOf(to.atStartOfDay()));
+        if (personId != null) {
+            sql.append(" and c.person_id = ?");
+            parameters.add(personId);
+        }
+        sql.append(" order by c.time, c.id");
+
+        Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8), BUFFER_SIZE);
+        RowWriter rowWriter = format == Format.CSV ? new CsvRowWriter(writer) : new NdjsonRowWriter(writer);
+
+        try {
+            rowWriter.start();
+            exportTransaction.execute(status -> {
+                jdbcTemplate.query(sql.toString(), parameters.toArray(), rowWriter);
+                return null;
+            });
+            rowWriter.finish();
+            writer.flush();
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+
+        log.info("Exported {} checks as {}", rowWriter.rows, format);
+        return rowWriter.rows;
+    }
+
+    private abstract static class RowWriter implements RowCallbackHandler {
+
+        protected final Writer writer;
+        private long rows;
+
+        private RowWriter(Writer writer) {
+            this.writer = writer;
+        }
+
+        protected void start() throws IOException {
+        }
+
+        protected void finish() throws IOException {
+        }
+
+        protected abstract void write(ResultSet resultSet) throws SQLException, IOException;
+
+        @Override
+        public void processRow(ResultSet resultSet) throws SQLException {
+            try {
+                write(resultSet);
+                rows++;
+            } catch (IOException ex) {
+                // the client has gone away, there is no point in reading on
+                throw new UncheckedIOException(ex);
+            }
+        }
+    }
+
+    private static class CsvRowWriter extends RowWriter {
+
+        private CsvRowWriter(Writer writer) {
+            super(writer);
+        }
+
+        @Override
+        protected void start() throws IOException {
+            writer.write(String.join(",", COLUMNS));
+            writer.write('\n');
+        }
+
+        @Override
+        protected void write(ResultSet resultSet) throws SQLException, IOException {
+            writer.write(String.valueOf(resultSet.getLong("id")));
+            writer.write(',');
+            writer.write(resultSet.getTimestamp("time").toLocalDateTime().toString());
+            writer.write(',');
+            writer.write(String.valueOf(resultSet.getBoolean("checked_in")));
+            writer.write(',');
+            writer.write(Duration.ofNanos(resultSet.getLong("duration")).toString());
+            writer.write(',');
+            writer.write(String.valueOf(resultSet.getLong("person_id")));
+            writer.write(',');
+            writer.write(quote(resultSet.getString("name")));
+            writer.write(',');
+            writer.write(quote(resultSet.getString("email")));
+            writer.write('\n');
+        }
+
+        /**
+         * Quotes a value that contains a separator, a quote or a line break, as in RFC 4180.
+         */
+        private static String quote(String value) {
+            if (value == null)
+                return "";
+            if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\r') < 0 && value.indexOf('\n') < 0)
+                return value;
+            return '"' + value.replace("\"", "\"\"") + '"';
+        }
+    }
+
+    private class NdjsonRowWriter extends RowWriter {
+
+        private final JsonGenerator generator;
+
+        private NdjsonRowWriter(Writer writer) throws IOException {
+            super(writer);
+            generator = jsonFactory.createGenerator(writer);
+            generator.configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false);
+            generator.configure(JsonGenerator.Feature.FLUSH_PASSED_TO_STREAM, false);
+            generator.setRootValueSeparator(null);
+        }
+
+        @Override
+        protected void finish() throws IOException {
+            generator.flush();
+        }
+
+        @Override
+        protected void write(ResultSet resultSet) throws SQLException, IOException {
+            generator.writeStartObject();
+            generator.writeNumberField(COLUMNS[0], resultSet.getLong("id"));
+            generator.writeStringField(COLUMNS[1], resultSet.getTimestamp("time").toLocalDateTime().toString());
+            generator.writeBooleanField(COLUMNS[2], resultSet.getBoolean("checked_in"));
+            generator.writeStringField(COLUMNS[3], Duration.ofNanos(resultSet.getLong("duration")).toString());
+            generator.writeNumberField(COLUMNS[4], resultSet.getLong("person_id"));
+            generator.writeStringField(COLUMNS[5], resultSet.getString("name"));
+            generator.writeStringField(COLUMNS[6], resultSet.getString("email"));
+            generator.writeEndObject();
+            generator.writeRaw('\n');
+        }
+    }
+
+}
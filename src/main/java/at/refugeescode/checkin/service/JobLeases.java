@@ -0,0 +1,249 @@
+package at.refugeescode.checkin.service;
+
+import at.refugeescode.checkin.config.JobMonitor;
+import at.refugeescode.checkin.domain.JobLease;
+import at.refugeescode.checkin.domain.JobLeaseRepository;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import lombok.ToString;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.annotation.AnnotationUtils;
+import org.springframework.core.env.Environment;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.scheduling.support.ScheduledMethodRunnable;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Leases of the {@link Leased} scheduled jobs, kept in the database, so that only one of several instances runs such
+ * a job per trigger. Every instance fires the job, but only the first one to take the lease for the trigger runs it,
+ * and the others skip it.
+ * <p>
+ * A lease expires after {@code checkin.lease.ttl.<job>} or else {@code checkin.lease.ttl} milliseconds. A released
+ * lease records its trigger as finished, and an instance that skipped a trigger checks again once the lease has
+ * expired, so that the run of a crashed instance is taken over. Every lease gets a new, larger token. A job passes its
+ * token to the database with {@link #fence} in the transaction that writes its results, so that an instance that has
+ * lost its lease, e.g. after a long pause, cannot write anymore.
+ */
+@Service
+@RequiredArgsConstructor(onConstructor = @__(@Autowired))
+@Slf4j
+public class JobLeases {
+
+    private static final String NODE = ManagementFactory.getRuntimeMXBean().getName();
+
+    @NonNull
+    private final JobLeaseRepository jobLeaseRepository;
+    @NonNull
+    private final PlatformTransactionManager transactionManager;
+    @NonNull
+    private final JobMonitor jobMonitor;
+    @NonNull
+    private final Environment environment;
+
+    @Value("${checkin.lease.ttl:600000}")
+    private long ttl;
+
+    /**
+     * The node name is not enough to tell instances apart when several run in the same JVM, like in the tests.
+     */
+    private final String owner = NODE + "/" + UUID.randomUUID().toString().substring(0, 8);
+
+    private TransactionTemplate transaction;
+    private ScheduledExecutorService takeOvers;
+    private final ThreadLocal<Lease> currentLease = new ThreadLocal<>();
+
+    private final AtomicLong acquired = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong lost = new AtomicLong();
+    private final AtomicLong takenOver = new AtomicLong();
+
+    @PostConstruct
+    protected void initialize() {
+        transaction = new TransactionTemplate(transactionManager);
+        takeOvers = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("JobLeases-%d").setDaemon(true).build());
+    }
+
+    @PreDestroy
+    protected void shutdown() {
+        takeOvers.shutdownNow();
+    }
+
+    @AllArgsConstructor
+    @Getter
+    @ToString
+    public static class Lease {
+        private final String job;
+        private final long token;
+        private final Duration ttl;
+    }
+
+    /**
+     * Returns the given task wrapped to run only with the lease of its job, if it is a {@link Leased} scheduled
+     * method, or else the task itself.
+     *
+     * @param triggerTime the time the current run of the task was triggered for, or null to use the time it starts
+     */
+    public Runnable lease(Runnable task, Supplier<Date> triggerTime) {
+        if (!(task instanceof ScheduledMethodRunnable))
+            return task;
+
+        ScheduledMethodRunnable scheduledMethod = (ScheduledMethodRunnable) task;
+        if (AnnotationUtils.findAnnotation(scheduledMethod.getMethod(), Leased.class) == null)
+            return task;
+
+        String job = JobMonitor.name(scheduledMethod);
+        Duration jobTtl = Duration.ofMillis(environment.getProperty("checkin.lease.ttl." + job, Long.class, ttl));
+        // still a scheduled method of the same target, so that it is monitored as the same job
+        return new ScheduledMethodRunnable(scheduledMethod.getTarget(), scheduledMethod.getMethod()) {
+            @Override
+            public void run() {
+                Date trigger = triggerTime == null ? null : triggerTime.get();
+                JobLeases.this.run(job, scheduledMethod, trigger == null ? LocalDateTime.now() :
+                        LocalDateTime.ofInstant(trigger.toInstant(), ZoneId.systemDefault()), jobTtl);
+            }
+        };
+    }
+
+    /**
+     * Runs the given task if this instance gets the lease of the job for the given trigger. If another instance holds
+     * the lease for the same trigger, runs the task once that lease has expired, unless the trigger has finished by
+     * then.
+     *
+     * @return whether the task has run right away
+     */
+    public boolean run(String job, Runnable task, LocalDateTime triggerTime, Duration ttl) {
+        Lease lease = acquire(job, triggerTime, ttl);
+        if (lease == null) {
+            log.debug("Skipping job {} triggered for {}, which another instance runs", job, triggerTime);
+            skipped.incrementAndGet();
+            jobMonitor.skip();
+            takeOverIfUnfinished(job, task, triggerTime, ttl);
+            return false;
+        }
+
+        acquired.incrementAndGet();
+        currentLease.set(lease);
+        try {
+            task.run();
+            return true;
+        } finally {
+            currentLease.remove();
+            release(lease);
+        }
+    }
+
+    /**
+     * Returns the lease of the job that runs on the current thread, or null outside of a leased run.
+     */
+    public Lease getCurrentLease() {
+        return currentLease.get();
+    }
+
+    /**
+     * Makes sure that the job that runs on the current thread still holds its lease, and extends it. Must be called
+     * in the transaction that writes the results of the job: the lease stays locked until the transaction ends, so no
+     * other instance can take it over in between. Does nothing outside of a leased run.
+     *
+     * @throws IllegalStateException if the lease has expired or has been taken over by another instance
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void fence() {
+        Lease lease = currentLease.get();
+        if (lease == null)
+            return;
+
+        LocalDateTime now = LocalDateTime.now();
+        if (jobLeaseRepository.renew(lease.job, lease.token, owner, now.plus(lease.ttl), now) == 0) {
+            lost.incrementAndGet();
+            throw new IllegalStateException("Lost the lease of job " + lease.job + " with token " + lease.token);
+        }
+    }
+
+    public Map<String, Number> getMetrics() {
+        Map<String, Number> metrics = new LinkedHashMap<>();
+        metrics.put("acquired", acquired.get());
+        metrics.put("skipped", skipped.get());
+        metrics.put("lost", lost.get());
+        metrics.put("takenOver", takenOver.get());
+        return metrics;
+    }
+
+    Lease acquire(String job, LocalDateTime triggerTime, Duration ttl) {
+        if (!jobLeaseRepository.exists(job)) {
+            try {
+                transaction.execute(status -> {
+                    jobLeaseRepository.create(job);
+                    return null;
+                });
+            } catch (DataIntegrityViolationException ex) {
+                // another instance has created it in the meantime
+            }
+        }
+
+        return transaction.execute(status -> {
+            // not every database checks the conditions of an update again once a concurrent one has committed, so
+            // the lease is locked first, and the update then sees the lease as taken
+            jobLeaseRepository.lock(job);
+            LocalDateTime now = LocalDateTime.now();
+            if (jobLeaseRepository.acquire(job, owner, triggerTime, now, now.plus(ttl)) == 0)
+                return null;
+            return new Lease(job, jobLeaseRepository.findOne(job).getToken(), ttl);
+        });
+    }
+
+    private void takeOverIfUnfinished(String job, Runnable task, LocalDateTime triggerTime, Duration ttl) {
+        JobLease lease = jobLeaseRepository.findOne(job);
+        if (lease == null || !triggerTime.equals(lease.getTriggerTime()) || triggerTime.equals(lease.getCompletedTrigger()))
+            return;
+
+        // the holder renews its lease while it is alive, so this checks again until the trigger has finished
+        long delay = Math.max(0, Duration.between(LocalDateTime.now(), lease.getExpiresAt()).toMillis());
+        takeOvers.schedule(() -> {
+            try {
+                if (run(job, task, triggerTime, ttl)) {
+                    log.warn("Took over job {} triggered for {}, whose lease expired before it finished", job, triggerTime);
+                    takenOver.incrementAndGet();
+                }
+            } catch (RuntimeException ex) {
+                log.error("Failed to take over job {} triggered for {}", job, triggerTime, ex);
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void release(Lease lease) {
+        try {
+            transaction.execute(status -> jobLeaseRepository.release(lease.job, lease.token, LocalDateTime.now()));
+        } catch (DataAccessException ex) {
+            // the lease expires on its own
+            log.warn("Failed to release the lease of job {}", lease.job, ex);
+        }
+    }
+
+}
@@ -0,0 +1,119 @@
+package at.refugeescode.checkin.service;
+
+import at.refugeescode.checkin.domain.OutboxMail;
+import at.refugeescode.checkin.domain.OutboxMailRepository;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * The persistent outbox behind {@link MailService}. Mails are appended as pending rows and claimed in batches by
+ * the queue worker of any instance, so queued mails survive restarts and are not sent twice by parallel workers.
+ */
+@Service
+@RequiredArgsConstructor(onConstructor = @__(@Autowired))
+@Slf4j
+public class MailOutbox {
+
+    private static final String NODE = ManagementFactory.getRuntimeMXBean().getName();
+
+    @NonNull
+    private final OutboxMailRepository outboxMailRepository;
+
+    @Value("${checkin.mail.maxAttempts:5}")
+    private int maxAttempts;
+    @Value("${checkin.mail.retryDelay:60000}")
+    private long retryDelay;
+    @Value("${checkin.mail.claimTimeout:600000}")
+    private long claimTimeout;
+
+    @Transactional
+    public OutboxMail append(String from, String to, String replyTo, String bcc, String subject, String text) {
+        LocalDateTime now = LocalDateTime.now();
+        OutboxMail mail = new OutboxMail(from, to, subject, text, OutboxMail.Status.PENDING, now, now);
+        mail.setReplyTo(replyTo);
+        mail.setBcc(bcc);
+        return outboxMailRepository.save(mail);
+    }
+
+    /**
+     * Appends the given mails in a single transaction, written in JDBC batches.
+     */
+    @Transactional
+    public void appendAll(Collection<OutboxMail> mails) {
+        outboxMailRepository.save(mails);
+    }
+
+    /**
+     * Claims up to {@code limit} due mails for this instance. Claims of instances that did not report back within
+     * {@code checkin.mail.claimTimeout} are released first, so mails of a crashed instance are sent again.
+     */
+    @Transactional
+    public List<OutboxMail> claim(int limit) {
+        LocalDateTime now = LocalDateTime.now();
+
+        int released = outboxMailRepository.releaseClaimsBefore(now.minus(Duration.ofMillis(claimTimeout)));
+        if (released > 0)
+            log.warn("Released {} expired mail claims", released);
+
+        List<OutboxMail> mails = outboxMailRepository.findAndLockDue(now, limit);
+        for (OutboxMail mail : mails) {
+            mail.setStatus(OutboxMail.Status.SENDING);
+            mail.setClaimedBy(NODE);
+            mail.setClaimedAt(now);
+        }
+        return outboxMailRepository.save(mails);
+    }
+
+    @Transactional
+    public void sent(Collection<OutboxMail> mails) {
+        LocalDateTime now = LocalDateTime.now();
+        for (OutboxMail mail : mails) {
+            mail.setStatus(OutboxMail.Status.SENT);
+            mail.setAttempts(mail.getAttempts() + 1);
+            mail.setSentAt(now);
+            mail.setLastError(null);
+        }
+        outboxMailRepository.save(mails);
+    }
+
+    /**
+     * Schedules the next attempt with exponential backoff, or gives up after {@code checkin.mail.maxAttempts}.
+     */
+    @Transactional
+    public void failed(Collection<OutboxMail> mails, Exception e) {
+        LocalDateTime now = LocalDateTime.now();
+        for (OutboxMail mail : mails) {
+            int attempts = mail.getAttempts() + 1;
+            mail.setAttempts(attempts);
+            mail.setLastError(StringUtils.abbreviate(String.valueOf(e), 1000));
+            mail.setClaimedBy(null);
+            mail.setClaimedAt(null);
+            if (attempts >= maxAttempts) {
+                mail.setStatus(OutboxMail.Status.FAILED);
+                log.error("Giving up on mail {} after {} attempts", mail, attempts);
+            }
+            else {
+                mail.setStatus(OutboxMail.Status.PENDING);
+                mail.setNextAttemptAt(now.plus(Duration.ofMillis(retryDelay << (attempts - 1))));
+            }
+        }
+        outboxMailRepository.save(mails);
+    }
+
+    @Transactional(readOnly = true)
+    public long count(OutboxMail.Status status) {
+        return outboxMailRepository.countByStatus(status);
+    }
+}
@@ -1,7 +1,10 @@
 package at.refugeescode.checkin.service;
 
+import at.refugeescode.checkin.config.JobMonitor;
+import at.refugeescode.checkin.domain.OutboxMail;
 import at.refugeescode.checkin.domain.Person;
 import com.google.common.base.Strings;
+import com.google.common.util.concurrent.RateLimiter;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -9,18 +12,23 @@ import org.hibernate.validator.internal.constraintvalidators.hv.EmailValidator;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.mail.MailException;
+import org.springframework.mail.MailSendException;
 import org.springframework.mail.javamail.JavaMailSender;
 import org.springframework.mail.javamail.MimeMessageHelper;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
 import javax.mail.MessagingException;
 import javax.mail.internet.AddressException;
 import javax.mail.internet.InternetAddress;
 import javax.mail.internet.MimeMessage;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
 
 @Service
 @RequiredArgsConstructor(onConstructor = @__(@Autowired))
@@ -35,6 +43,10 @@ public class MailService {
 
     @NonNull
     private final JavaMailSender mailSender;
+    @NonNull
+    private final MailOutbox mailOutbox;
+    @NonNull
+    private final JobMonitor jobMonitor;
 
     @Value("${checkin.mail.enabled}")
     private boolean enabled;
@@ -44,8 +56,23 @@ public class MailService {
     private boolean debug;
     @Value("${checkin.mail.webmaster}")
     private String webmaster;
+    @Value("${checkin.mail.batchSize:20}")
+    private int batchSize;
+    @Value("${checkin.mail.maxPerSecond:5}")
+    private double maxPerSecond;
+
+    private RateLimiter rateLimiter;
 
-    private final Queue<MimeMessage> messageQueue = new ConcurrentLinkedQueue<>();
+    private final AtomicLong sentMessages = new AtomicLong();
+    private final AtomicLong failedMessages = new AtomicLong();
+    private final AtomicLong sentBatches = new AtomicLong();
+    private final AtomicLong totalSendMillis = new AtomicLong();
+    private final AtomicLong maxSendMillis = new AtomicLong();
+
+    @PostConstruct
+    protected void initialize() {
+        rateLimiter = RateLimiter.create(maxPerSecond);
+    }
 
     @Async
     public void sendMail(Person receiver, String replyTo, String bcc, String subject, String text) {
@@ -54,6 +81,15 @@ public class MailService {
         }
     }
 
+    /**
+     * Queues one mail per receiver, with the text rendered for each receiver, in a single asynchronous task.
+     */
+    @Async
+    public void sendMail(Collection<Person> receivers, String replyTo, String bcc, String subject, Function<Person, String> text) {
+        for (Person receiver : receivers)
+            sendMail(receiver, replyTo, bcc, subject, text.apply(receiver));
+    }
+
     @Async
     public void sendMail(String to, String replyTo, String bcc, String subject, String text) {
         sendMail(this.from, to, replyTo, bcc, subject, text);
@@ -61,6 +97,46 @@ public class MailService {
 
     @Async
     public void sendMail(String from, String to, String replyTo, String bcc, String subject, String text) {
+        to = recipient(to);
+        if (enabled) {
+            log.info("Queue sending mail to: '{}', subject: '{}' ", to, subject);
+            mailOutbox.append(from, to, replyTo, bcc, subject, text);
+        }
+        else {
+            log.info("Skip sending mail to: '{}', subject: '{}', text: '{}'", to, subject, text);
+        }
+    }
+
+    /**
+     * Queues one mail per receiver with a valid address, with the text at the same index, in a single transaction.
+     * Unlike the other methods, this one runs on the calling thread, so the mails are in the outbox when it returns.
+     *
+     * @return the number of mails queued
+     */
+    public int sendMails(List<Person> receivers, List<String> texts, String replyTo, String bcc, String subject) {
+        if (!enabled) {
+            log.info("Skip sending {} mails, subject: '{}'", receivers.size(), subject);
+            return 0;
+        }
+
+        LocalDateTime now = LocalDateTime.now();
+        List<OutboxMail> mails = new ArrayList<>(receivers.size());
+        for (int i = 0; i < receivers.size(); i++) {
+            String email = receivers.get(i).getEmail();
+            if (email == null || !emailValidator.isValid(email, null))
+                continue;
+            OutboxMail mail = new OutboxMail(from, recipient(email), subject, texts.get(i), OutboxMail.Status.PENDING, now, now);
+            mail.setReplyTo(replyTo);
+            mail.setBcc(bcc);
+            mails.add(mail);
+        }
+
+        log.info("Queue sending {} mails, subject: '{}'", mails.size(), subject);
+        mailOutbox.appendAll(mails);
+        return mails.size();
+    }
+
+    private String recipient(String to) {
         if (debug) {
             to = webmaster;
         }
@@ -68,43 +144,99 @@ public class MailService {
             log.warn("to is null or empty");
             to = webmaster;
         }
-        if (enabled) {
-            try {
-                log.info("Queue sending mail to: '{}', subject: '{}' ", to, subject);
-
-                MimeMessage message = mailSender.createMimeMessage();
-                MimeMessageHelper helper = new MimeMessageHelper(message, MimeMessageHelper.MULTIPART_MODE_MIXED_RELATED);
-                message.setFrom(from);
-                helper.setTo(parse(to));
-                if (!Strings.isNullOrEmpty(replyTo))
-                    helper.setReplyTo(parse(replyTo));
-                if (!Strings.isNullOrEmpty(bcc))
-                    helper.setBcc(parse(bcc));
-                helper.setSubject(subject);
-                helper.setText(text, true);
-
-                messageQueue.add(message);
-            }
-            catch (MessagingException e) {
-                log.error("Failed to send mail to: '{}', subject: '{}'", to, subject, e);
-            }
-        }
-        else {
-            log.info("Skip sending mail to: '{}', subject: '{}', text: '{}'", to, subject, text);
-        }
+        return to;
     }
 
+    /**
+     * Claims up to {@code checkin.mail.batchSize} mails from the outbox and sends them over a single connection,
+     * limited to {@code checkin.mail.maxPerSecond} messages per second. Not {@link Leased}: every instance drains the
+     * outbox, and the claim already keeps two instances from sending the same mail.
+     */
     @Scheduled(fixedDelayString = "${checkin.mail.queueDelay}")
     protected void processQueue() {
-        if (!messageQueue.isEmpty()) {
-            MimeMessage message = messageQueue.poll();
+        if (!enabled)
+            return;
+
+        List<OutboxMail> mails = mailOutbox.claim(batchSize);
+        if (mails.isEmpty())
+            return;
+        jobMonitor.count("claimed", mails.size());
+
+        Map<MimeMessage, OutboxMail> batch = new LinkedHashMap<>();
+        for (OutboxMail mail : mails) {
             try {
-                log.info("Sending queued message to: '{}', subject: '{}'", message.getAllRecipients(), message.getSubject());
-                mailSender.send(message);
+                batch.put(createMessage(mail), mail);
             }
-            catch (MailException | MessagingException e) {
-                log.error("Failed to send mails.", e);
+            catch (MessagingException e) {
+                log.error("Failed to create mail to: '{}', subject: '{}'", mail.getRecipient(), mail.getSubject(), e);
+                failedMessages.incrementAndGet();
+                jobMonitor.count("failed", 1);
+                mailOutbox.failed(Collections.singletonList(mail), e);
             }
         }
+        if (batch.isEmpty())
+            return;
+
+        rateLimiter.acquire(batch.size());
+
+        log.info("Sending {} queued messages", batch.size());
+        long start = System.nanoTime();
+        try {
+            mailSender.send(batch.keySet().toArray(new MimeMessage[batch.size()]));
+            sentMessages.addAndGet(batch.size());
+            jobMonitor.count("sent", batch.size());
+            mailOutbox.sent(batch.values());
+        }
+        catch (MailSendException e) {
+            List<OutboxMail> failed = new ArrayList<>();
+            for (Object message : e.getFailedMessages().keySet())
+                failed.add(batch.remove(message));
+            failedMessages.addAndGet(failed.size());
+            sentMessages.addAndGet(batch.size());
+            jobMonitor.count("failed", failed.size());
+            jobMonitor.count("sent", batch.size());
+            log.error("Failed to send {} of {} mails.", failed.size(), failed.size() + batch.size(), e);
+            if (!batch.isEmpty())
+                mailOutbox.sent(batch.values());
+            mailOutbox.failed(failed, e);
+        }
+        catch (MailException e) {
+            failedMessages.addAndGet(batch.size());
+            jobMonitor.count("failed", batch.size());
+            log.error("Failed to send mails.", e);
+            mailOutbox.failed(batch.values(), e);
+        }
+        finally {
+            long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            sentBatches.incrementAndGet();
+            totalSendMillis.addAndGet(millis);
+            maxSendMillis.accumulateAndGet(millis, Math::max);
+        }
+    }
+
+    private MimeMessage createMessage(OutboxMail mail) throws MessagingException {
+        MimeMessage message = mailSender.createMimeMessage();
+        MimeMessageHelper helper = new MimeMessageHelper(message, MimeMessageHelper.MULTIPART_MODE_MIXED_RELATED);
+        message.setFrom(mail.getSender());
+        helper.setTo(parse(mail.getRecipient()));
+        if (!Strings.isNullOrEmpty(mail.getReplyTo()))
+            helper.setReplyTo(parse(mail.getReplyTo()));
+        if (!Strings.isNullOrEmpty(mail.getBcc()))
+            helper.setBcc(parse(mail.getBcc()));
+        helper.setSubject(mail.getSubject());
+        helper.setText(mail.getText(), true);
+        return message;
+    }
+
+    public Map<String, Number> getMetrics() {
+        Map<String, Number> metrics = new LinkedHashMap<>();
+        metrics.put("outbox.pending", mailOutbox.count(OutboxMail.Status.PENDING));
+        metrics.put("outbox.failed", mailOutbox.count(OutboxMail.Status.FAILED));
+        metrics.put("sent", sentMessages.get());
+        metrics.put("failed", failedMessages.get());
+        metrics.put("batches", sentBatches.get());
+        metrics.put("batch.latency.avg", sentBatches.get() == 0 ? 0 : totalSendMillis.get() / sentBatches.get());
+        metrics.put("batch.latency.max", maxSendMillis.get());
+        return metrics;
     }
 }
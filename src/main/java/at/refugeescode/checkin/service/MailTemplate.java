@@ -0,0 +1,48 @@
+package at.refugeescode.checkin.service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A mail text with {@code %s} placeholders, split into its literal parts once, so that rendering only appends to a
+ * buffer instead of parsing the format on every call like {@link String#format}.
+ */
+class MailTemplate {
+
+    private static final String PLACEHOLDER = "%s";
+
+    private final String[] parts;
+
+    private MailTemplate(String[] parts) {
+        this.parts = parts;
+    }
+
+    public static MailTemplate compile(String template) {
+        List<String> parts = new ArrayList<>();
+        int start = 0;
+        for (int end = template.indexOf(PLACEHOLDER); end >= 0; end = template.indexOf(PLACEHOLDER, start)) {
+            parts.add(template.substring(start, end));
+            start = end + PLACEHOLDER.length();
+        }
+        parts.add(template.substring(start));
+        return new MailTemplate(parts.toArray(new String[parts.size()]));
+    }
+
+    public int getArity() {
+        return parts.length - 1;
+    }
+
+    /**
+     * Appends the template to the given buffer, with the placeholders replaced by the given values in order.
+     */
+    public StringBuilder render(StringBuilder buffer, Object... values) {
+        if (values.length != getArity())
+            throw new IllegalArgumentException("Expected " + getArity() + " values, got " + values.length);
+
+        buffer.append(parts[0]);
+        for (int i = 0; i < values.length; i++)
+            buffer.append(values[i]).append(parts[i + 1]);
+        return buffer;
+    }
+
+}
@@ -0,0 +1,176 @@
+package at.refugeescode.checkin.service;
+
+import at.refugeescode.checkin.domain.CheckinRepository;
+import at.refugeescode.checkin.domain.CheckinTally;
+import at.refugeescode.checkin.domain.OverviewVersion;
+import at.refugeescode.checkin.domain.OverviewVersionRepository;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.rest.core.annotation.HandleAfterCreate;
+import org.springframework.data.rest.core.annotation.HandleAfterDelete;
+import org.springframework.data.rest.core.annotation.HandleAfterSave;
+import org.springframework.data.rest.core.annotation.RepositoryEventHandler;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PostConstruct;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Keeps the serialized overview of the current version of every month. The version of a month is read from the
+ * database, so that every instance sees the same version: it moves when a check is added to or deleted from the month,
+ * and with the version of all months, which moves when people or checks are changed through the REST API, a person is
+ * added or the daily attendance is rebuilt.
+ */
+@Service
+@RepositoryEventHandler
+@RequiredArgsConstructor(onConstructor = @__(@Autowired))
+public class OverviewCache {
+
+    @NonNull
+    private final CheckinRepository checkinRepository;
+
+    @NonNull
+    private final OverviewVersionRepository overviewVersionRepository;
+
+    private final ConcurrentMap<Key, Cached> cache = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    @PostConstruct
+    public void initialize() {
+        if (!overviewVersionRepository.exists(OverviewVersion.ID)) {
+            try {
+                overviewVersionRepository.create();
+            } catch (DataIntegrityViolationException ex) {
+                // another instance has just created it
+            }
+        }
+    }
+
+    /**
+     * Returns the current version of the given month.
+     */
+    public Version version(YearMonth yearMonth) {
+        OverviewVersion allMonths = overviewVersionRepository.findOne(OverviewVersion.ID);
+        CheckinTally checks = checkinRepository.tally(yearMonth.atDay(1).atStartOfDay(),
+                yearMonth.plusMonths(1).atDay(1).atStartOfDay());
+        LocalDateTime modified = checks.getLastTime() != null && checks.getLastTime().isAfter(allMonths.getModified())
+                ? checks.getLastTime() : allMonths.getModified();
+        return new Version(allMonths.getNumber(), checks.getCount(), checks.getLastId() != null ? checks.getLastId() : 0,
+                modified.atZone(ZoneId.systemDefault()).toInstant());
+    }
+
+    /**
+     * Returns the ETag of the given representation of the given month and version.
+     */
+    public String eTag(YearMonth yearMonth, String representation, Version version) {
+        return "\"" + yearMonth + "-" + version.allMonths + "-" + version.checks + "-" + version.lastCheckId + "-" +
+                representation + "\"";
+    }
+
+    /**
+     * Returns the given representation of the overview of the given month and version, from the cache or from the
+     * given serializer. An overview is only cached if its month did not change while it was serialized.
+     */
+    public byte[] get(YearMonth yearMonth, String representation, Version version, Supplier<byte[]> serializer) {
+        Key key = new Key(yearMonth, representation);
+        Cached cached = cache.get(key);
+        if (cached != null && cached.version.equals(version)) {
+            hits.incrementAndGet();
+            return cached.body;
+        }
+
+        misses.incrementAndGet();
+        byte[] body = serializer.get();
+        if (version(yearMonth).equals(version))
+            cache.put(key, new Cached(version, body));
+        return body;
+    }
+
+    /**
+     * Moves the version of all months within the current transaction, and drops the cached overviews once it has
+     * committed. Versions of single months need no touch, as they follow the checks in them.
+     */
+    public void touchAll() {
+        overviewVersionRepository.bump(LocalDateTime.now());
+        afterCommit(cache::clear);
+    }
+
+    @HandleAfterCreate
+    @HandleAfterSave
+    @HandleAfterDelete
+    public void handle(Object entity) {
+        // a person may have been renamed, or a check may have moved between months
+        touchAll();
+    }
+
+    public Map<String, Number> getMetrics() {
+        Map<String, Number> metrics = new LinkedHashMap<>();
+        metrics.put("cached", cache.size());
+        metrics.put("hits", hits.get());
+        metrics.put("misses", misses.get());
+        return metrics;
+    }
+
+    private static void afterCommit(Runnable runnable) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    runnable.run();
+                }
+            });
+        }
+        else {
+            runnable.run();
+        }
+    }
+
+    /**
+     * A version of a monthly overview: the version of all months and the tally of the checks in the month. The time it
+     * was modified is the later of the last check in the month and the last move of the version of all months.
+     */
+    @AllArgsConstructor
+    @Getter
+    @EqualsAndHashCode
+    public static class Version {
+
+        private final long allMonths;
+        private final long checks;
+        private final long lastCheckId;
+        private final Instant modified;
+    }
+
+    @AllArgsConstructor
+    @EqualsAndHashCode
+    private static class Key {
+
+        private final YearMonth yearMonth;
+        private final String representation;
+    }
+
+    @AllArgsConstructor
+    private static class Cached {
+
+        private final Version version;
+        private final byte[] body;
+    }
+
+}
@@ -0,0 +1,136 @@
+package at.refugeescode.checkin.service;
+
+import at.refugeescode.checkin.domain.Person;
+import at.refugeescode.checkin.domain.PersonRepository;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.rest.core.annotation.HandleAfterCreate;
+import org.springframework.data.rest.core.annotation.HandleAfterDelete;
+import org.springframework.data.rest.core.annotation.HandleAfterSave;
+import org.springframework.data.rest.core.annotation.HandleBeforeSave;
+import org.springframework.data.rest.core.annotation.RepositoryEventHandler;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PostConstruct;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caches people by uid, so that a tap does not have to look up the person first. Entries are dropped when people are
+ * changed through the REST API of this instance, and expire after {@code checkin.personCache.expiry} ms so that
+ * changes made through other instances show up eventually.
+ * <p>
+ * The cache hands out detached copies of people. They can be referenced by new checks, but changes to them are not
+ * saved.
+ */
+@Service
+@RepositoryEventHandler
+@RequiredArgsConstructor(onConstructor = @__(@Autowired))
+public class PersonCache {
+
+    @NonNull
+    private final PersonRepository personRepository;
+
+    @Value("${checkin.personCache.size:10000}")
+    private int size;
+    @Value("${checkin.personCache.expiry:600000}")
+    private long expiry;
+
+    private Cache<String, CachedPerson> cache;
+
+    @PostConstruct
+    protected void initialize() {
+        cache = CacheBuilder.newBuilder()
+                .maximumSize(size)
+                .expireAfterWrite(expiry, TimeUnit.MILLISECONDS)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Returns the person with the given uid, or null if there is none. Unknown uids are not cached, as they are
+     * usually followed by a new person.
+     */
+    public Person findByUid(String uid) {
+        CachedPerson cached = cache.getIfPresent(uid);
+        if (cached != null)
+            return cached.toPerson();
+
+        Person person = personRepository.findByUid(uid);
+        if (person != null)
+            cache.put(uid, new CachedPerson(person));
+        return person;
+    }
+
+    /**
+     * Caches the given person, once the current transaction has committed. Used for people created on the first tap.
+     */
+    public void put(Person person) {
+        CachedPerson cached = new CachedPerson(person);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    cache.put(cached.uid, cached);
+                }
+            });
+        }
+        else {
+            cache.put(cached.uid, cached);
+        }
+    }
+
+    @HandleBeforeSave
+    @HandleAfterCreate
+    @HandleAfterSave
+    @HandleAfterDelete
+    public void handle(Person person) {
+        // the uid itself may have changed, so drop the person under any uid
+        cache.invalidate(person.getUid());
+        if (person.getId() != null)
+            cache.asMap().values().removeIf(cached -> cached.id.equals(person.getId()));
+    }
+
+    public Map<String, Number> getMetrics() {
+        CacheStats stats = cache.stats();
+        Map<String, Number> metrics = new LinkedHashMap<>();
+        metrics.put("size", cache.size());
+        metrics.put("hits", stats.hitCount());
+        metrics.put("misses", stats.missCount());
+        metrics.put("evictions", stats.evictionCount());
+        return metrics;
+    }
+
+    private static class CachedPerson {
+
+        private final Long id;
+        private final String uid;
+        private final String name;
+        private final String email;
+        private final String slackHandle;
+
+        private CachedPerson(Person person) {
+            this.id = person.getId();
+            this.uid = person.getUid();
+            this.name = person.getName();
+            this.email = person.getEmail();
+            this.slackHandle = person.getSlackHandle();
+        }
+
+        private Person toPerson() {
+            Person person = new Person(uid, name, email);
+            person.setId(id);
+            person.setSlackHandle(slackHandle);
+            return person;
+        }
+    }
+
+}
@@ -0,0 +1,183 @@
+package at.refugeescode.checkin.service;
+
+import at.refugeescode.checkin.domain.Checkin;
+import at.refugeescode.checkin.domain.CheckinRepository;
+import at.refugeescode.checkin.domain.Person;
+import at.refugeescode.checkin.domain.Presence;
+import at.refugeescode.checkin.dto.StatusChange;
+import lombok.AllArgsConstructor;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.rest.core.annotation.HandleAfterCreate;
+import org.springframework.data.rest.core.annotation.HandleAfterDelete;
+import org.springframework.data.rest.core.annotation.HandleAfterSave;
+import org.springframework.data.rest.core.annotation.RepositoryEventHandler;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps the last check of every person in memory, so that the status of a person can be answered without a query.
+ * The index is loaded once at startup and updated whenever a new check is committed, and every change of the last
+ * check of a person is published to the {@link ActivityStream}.
+ * <p>
+ * Checks written by other instances are picked up every {@code checkin.presence.refreshDelay} milliseconds from the
+ * checks with ids above the ones seen so far. Ids are drawn before their transaction commits, so the ids of the last
+ * {@code checkin.presence.refreshWindow} milliseconds are read again, in case a smaller one committed late.
+ * <p>
+ * A check that is created, changed or deleted through the REST API may not be the newest one, or may have been the
+ * last one of its person, so the last check of the person is read again once the change has committed.
+ */
+@Service
+@RepositoryEventHandler
+@RequiredArgsConstructor(onConstructor = @__(@Autowired))
+@Slf4j
+public class PresenceIndex {
+
+    @NonNull
+    private final CheckinRepository checkinRepository;
+    @NonNull
+    private final ActivityStream activityStream;
+
+    @Value("${checkin.presence.refreshWindow:60000}")
+    private long refreshWindow;
+
+    private final ConcurrentMap<Long, Presence> presences = new ConcurrentHashMap<>();
+
+    /**
+     * Every check up to this id has been seen.
+     */
+    private long seenUpTo;
+    private final Deque<Refresh> refreshes = new ArrayDeque<>();
+
+    /**
+     * (Re)loads the index from the database. Needed after checks have been written without {@link #update(Checkin)}.
+     */
+    @PostConstruct
+    public synchronized void load() {
+        // taken first, so that checks committed while the index loads are read again
+        seenUpTo = checkinRepository.findFirstByOrderByIdDesc().map(Checkin::getId).orElse(0L);
+        refreshes.clear();
+        presences.clear();
+        for (Presence presence : checkinRepository.findAllPresences())
+            put(presence);
+        log.info("Loaded presence index with {} people", presences.size());
+    }
+
+    public Optional<Presence> get(Person person) {
+        return person.getId() == null ? Optional.empty() : Optional.ofNullable(presences.get(person.getId()));
+    }
+
+    /**
+     * Records the given check. Inside a transaction, the index is only updated once the transaction has committed.
+     */
+    public void update(Checkin checkin) {
+        Presence presence = Presence.of(checkin);
+        StatusChange change = StatusChange.of(checkin);
+        afterCommit(() -> putAndPublish(presence, change));
+    }
+
+    @HandleAfterCreate
+    @HandleAfterSave
+    @HandleAfterDelete
+    public void handle(Checkin checkin) {
+        Person person = checkin.getPerson();
+        afterCommit(() -> reload(person));
+    }
+
+    /**
+     * Records the checks that have been written by other instances since the last refresh.
+     */
+    @Scheduled(fixedDelayString = "${checkin.presence.refreshDelay:1000}")
+    public synchronized void refresh() {
+        long now = System.currentTimeMillis();
+        List<Checkin> checks = checkinRepository.findAfterId(seenUpTo);
+        refreshes.add(new Refresh(now, checks.stream().mapToLong(Checkin::getId).max().orElse(seenUpTo)));
+        while (refreshes.peekFirst().time < now - refreshWindow)
+            seenUpTo = Math.max(seenUpTo, refreshes.removeFirst().lastId);
+        if (checks.isEmpty())
+            return;
+
+        // a new check may have changed the later checks of a person too, so the last check is read again
+        Set<Long> personIds = checks.stream().map(check -> check.getPerson().getId()).collect(Collectors.toSet());
+        List<StatusChange> changes = new ArrayList<>();
+        for (Checkin check : checkinRepository.findLastChecksOfPeople(personIds)) {
+            if (put(Presence.of(check)))
+                changes.add(StatusChange.of(check));
+        }
+        activityStream.publish(changes);
+    }
+
+    public int size() {
+        return presences.size();
+    }
+
+    /**
+     * Replaces the last check of the given person with the one in the database. Synchronized with {@link #refresh},
+     * which could otherwise put back a check that it read before it was deleted.
+     */
+    private synchronized void reload(Person person) {
+        Optional<Checkin> last = checkinRepository.findFirstByPersonOrderByTimeDescIdDesc(person);
+        if (!last.isPresent())
+            presences.remove(person.getId());
+        else if (!Presence.of(last.get()).equals(presences.put(person.getId(), Presence.of(last.get()))))
+            activityStream.publish(Collections.singletonList(StatusChange.of(last.get())));
+    }
+
+    private void putAndPublish(Presence presence, StatusChange change) {
+        if (put(presence))
+            activityStream.publish(Collections.singletonList(change));
+    }
+
+    /**
+     * @return whether the last check of the person has changed
+     */
+    private boolean put(Presence presence) {
+        boolean[] changed = new boolean[1];
+        // transactions may commit out of order, so never replace a check with an older one
+        presences.compute(presence.getPersonId(), (personId, previous) -> {
+            if (previous != null && presence.getTime().isBefore(previous.getTime()))
+                return previous;
+            changed[0] = !presence.equals(previous);
+            return presence;
+        });
+        return changed[0];
+    }
+
+    private static void afterCommit(Runnable runnable) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    runnable.run();
+                }
+            });
+        }
+        else {
+            runnable.run();
+        }
+    }
+
+    @AllArgsConstructor
+    private static class Refresh {
+
+        private final long time;
+        private final long lastId;
+    }
+}
@@ -0,0 +1,357 @@
+package at.refugeescode.checkin.service;
+
+import at.refugeescode.checkin.domain.Checkin;
+import at.refugeescode.checkin.domain.Person;
+import at.refugeescode.checkin.domain.PersonRepository;
+import at.refugeescode.checkin.dto.Tap;
+import at.refugeescode.checkin.dto.TapBatchResult;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.*;
+import java.util.concurrent.locks.Lock;
+import java.util.stream.Collectors;
+
+/**
+ * Records taps that kiosks buffered while they were offline, at the time they were actually made. A replayed tap may
+ * be older than checks that have been recorded since, so the taps of a person are merged into the history: every
+ * check from the first replayed tap on gets its check in state, duration and previous check computed again, and the
+ * daily attendance of the affected days is rebuilt.
+ * <p>
+ * Taps are grouped by person and written in chunks of whole people, with batched JDBC statements and one transaction
+ * per chunk. A tap id that has been recorded before is skipped, so replaying a batch twice records it once.
+ */
+@Service
+@RequiredArgsConstructor(onConstructor = @__(@Autowired))
+@Slf4j
+public class TapIngestionService {
+
+    private static final int MAX_ATTEMPTS = 3;
+
+    /**
+     * How far the clock of a kiosk may be ahead of the server.
+     */
+    private static final Duration MAX_CLOCK_SKEW = Duration.ofMinutes(5);
+
+    private static final String CHECK_COLUMNS = "select id, time, duration, checked_in, previous_id from checkin ";
+
+    @NonNull
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    @NonNull
+    private final PersonRepository personRepository;
+    @NonNull
+    private final DailyAttendanceService dailyAttendanceService;
+    @NonNull
+    private final PresenceIndex presenceIndex;
+    @NonNull
+    private final OverviewCache overviewCache;
+    @NonNull
+    private final UidLocks uidLocks;
+    @NonNull
+    private final PersonCache personCache;
+    @NonNull
+    private final PlatformTransactionManager transactionManager;
+
+    @Value("${checkin.ingest.chunkSize:500}")
+    private int chunkSize;
+    @Value("${spring.datasource.platform}")
+    private String platform;
+
+    private TransactionTemplate chunkTransaction;
+    private String nextIdsQuery;
+
+    @PostConstruct
+    protected void initialize() {
+        chunkTransaction = new TransactionTemplate(transactionManager);
+        chunkTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+
+        // ids come from the sequence Hibernate uses, all ids of a chunk with a single query
+        nextIdsQuery = "h2".equals(platform)
+                ? "select nextval('hibernate_sequence') from system_range(1, :count)"
+                : "select nextval('hibernate_sequence') from generate_series(1, :count)";
+    }
+
+    public TapBatchResult ingest(List<Tap> taps) {
+        LocalDateTime latest = LocalDateTime.now().plus(MAX_CLOCK_SKEW);
+
+        int rejected = 0;
+        int duplicates = 0;
+        Set<String> tapIds = new HashSet<>();
+        Map<String, List<Tap>> tapsByUid = new LinkedHashMap<>();
+
+        for (Tap tap : taps) {
+            if (StringUtils.isBlank(tap.getUid()) || StringUtils.isBlank(tap.getTapId()) || tap.getTime() == null || tap.getTime().isAfter(latest))
+                rejected++;
+            else if (!tapIds.add(tap.getTapId()))
+                duplicates++;
+            else
+                tapsByUid.computeIfAbsent(tap.getUid(), uid -> new ArrayList<>()).add(tap);
+        }
+
+        int recorded = 0;
+        Map<String, List<Tap>> chunk = new LinkedHashMap<>();
+        int size = 0;
+
+        for (Map.Entry<String, List<Tap>> entry : tapsByUid.entrySet()) {
+            chunk.put(entry.getKey(), entry.getValue());
+            size += entry.getValue().size();
+
+            if (size >= chunkSize) {
+                recorded += ingestChunk(chunk);
+                chunk = new LinkedHashMap<>();
+                size = 0;
+            }
+        }
+        if (!chunk.isEmpty())
+            recorded += ingestChunk(chunk);
+
+        duplicates += tapIds.size() - recorded;
+        log.info("Ingested {} taps: {} recorded, {} duplicates, {} rejected", taps.size(), recorded, duplicates, rejected);
+
+        return new TapBatchResult(recorded, duplicates, rejected);
+    }
+
+    /**
+     * Writes a chunk in its own transaction, while holding the locks of all its uids, so that no live tap of these
+     * people comes in between. A chunk that conflicts with another instance is retried.
+     *
+     * @return the number of taps recorded
+     */
+    private int ingestChunk(Map<String, List<Tap>> chunk) {
+        List<Lock> locks = new ArrayList<>();
+        try {
+            for (Lock lock : uidLocks.getAll(chunk.keySet())) {
+                lock.lock();
+                locks.add(lock);
+            }
+
+            for (int attempt = 1; ; attempt++) {
+                try {
+                    return chunkTransaction.execute(status -> writeChunk(chunk));
+                } catch (DataIntegrityViolationException | ConcurrencyFailureException ex) {
+                    if (attempt >= MAX_ATTEMPTS)
+                        throw ex;
+                    log.warn("Concurrent checks while ingesting taps, retrying: {}", ex.getMessage());
+                }
+            }
+        } finally {
+            locks.forEach(Lock::unlock);
+        }
+    }
+
+    private int writeChunk(Map<String, List<Tap>> chunk) {
+        Set<String> recordedTapIds = new HashSet<>(jdbcTemplate.queryForList(
+                "select tap_id from checkin where tap_id in (:tapIds)",
+                new MapSqlParameterSource("tapIds", chunk.values().stream()
+                        .flatMap(List::stream).map(Tap::getTapId).collect(Collectors.toList())),
+                String.class));
+
+        List<History> histories = new ArrayList<>();
+        List<Entry> unlinked = new ArrayList<>();
+        List<Entry> inserted = new ArrayList<>();
+        List<Entry> updated = new ArrayList<>();
+
+        for (Map.Entry<String, List<Tap>> uidTaps : chunk.entrySet()) {
+            List<Tap> taps = new ArrayList<>();
+            for (Tap tap : uidTaps.getValue())
+                if (!recordedTapIds.contains(tap.getTapId()))
+                    taps.add(tap);
+            if (taps.isEmpty())
+                continue;
+
+            taps.sort(Comparator.comparing(Tap::getTime).thenComparing(Tap::getTapId));
+            histories.add(merge(uidTaps.getKey(), taps, unlinked, inserted, updated));
+        }
+
+        if (inserted.isEmpty())
+            return 0;
+
+        List<Long> ids = jdbcTemplate.queryForList(nextIdsQuery, new MapSqlParameterSource("count", inserted.size()), Long.class);
+        for (int i = 0; i < inserted.size(); i++)
+            inserted.get(i).id = ids.get(i);
+
+        // the previous id is unique, so checks that follow another check now let go of their old one first
+        jdbcTemplate.batchUpdate("update checkin set previous_id = null where id = :id",
+                unlinked.stream().map(Entry::parameters).toArray(MapSqlParameterSource[]::new));
+        jdbcTemplate.batchUpdate("insert into checkin (id, person_id, time, duration, checked_in, previous_id, tap_id, kiosk_id) " +
+                        "values (:id, :personId, :time, :duration, :checkedIn, :previousId, :tapId, :kioskId)",
+                inserted.stream().map(Entry::parameters).toArray(MapSqlParameterSource[]::new));
+        jdbcTemplate.batchUpdate("update checkin set duration = :duration, checked_in = :checkedIn, previous_id = :previousId where id = :id",
+                updated.stream().map(Entry::parameters).toArray(MapSqlParameterSource[]::new));
+
+        for (History history : histories) {
+            Person person = history.person;
+            Entry last = history.last;
+            dailyAttendanceService.rebuild(person, history.first.toLocalDate(), last.time.toLocalDate().plusDays(1));
+
+            presenceIndex.update(last.toCheckin(person));
+            // the month of the first tap follows the inserted checks, but later months may only have updated ones
+            if (!YearMonth.from(history.first).equals(YearMonth.from(last.time)))
+                overviewCache.touchAll();
+        }
+
+        return inserted.size();
+    }
+
+    /**
+     * Merges the given taps, sorted by time, into the history of the person with the given uid.
+     */
+    private History merge(String uid, List<Tap> taps, List<Entry> unlinked, List<Entry> inserted, List<Entry> updated) {
+        Person person = personCache.findByUid(uid);
+        if (person == null) {
+            // flushed right away, the checks are inserted with JDBC
+            person = personRepository.saveAndFlush(CheckinService.placeholder(uid));
+            personCache.put(person);
+            overviewCache.touchAll();
+        }
+
+        LocalDateTime first = taps.get(0).getTime();
+        MapSqlParameterSource parameters = new MapSqlParameterSource("personId", person.getId())
+                .addValue("time", Timestamp.valueOf(first));
+
+        // the last check before the first tap stays as it is, everything after it is computed again
+        List<Entry> previous = jdbcTemplate.query(CHECK_COLUMNS + "where person_id = :personId and time <= :time " +
+                "order by time desc, id desc limit 1", parameters, TapIngestionService::entry);
+        List<Entry> following = jdbcTemplate.query(CHECK_COLUMNS + "where person_id = :personId and time > :time " +
+                "order by time, id", parameters, TapIngestionService::entry);
+
+        List<Entry> history = new ArrayList<>(following.size() + taps.size());
+        Iterator<Entry> checks = following.iterator();
+        Entry check = checks.hasNext() ? checks.next() : null;
+        for (Tap tap : taps) {
+            // a check that was recorded at the same time as a tap comes first
+            while (check != null && !check.time.isAfter(tap.getTime())) {
+                history.add(check);
+                check = checks.hasNext() ? checks.next() : null;
+            }
+            history.add(new Entry(tap));
+        }
+        while (check != null) {
+            history.add(check);
+            check = checks.hasNext() ? checks.next() : null;
+        }
+
+        Entry last = previous.isEmpty() ? null : previous.get(0);
+        for (Entry entry : history) {
+            entry.personId = person.getId();
+            boolean checkedIn = last == null || !last.checkedIn;
+            Duration duration = last == null ? Duration.ZERO : Duration.between(last.time, entry.time);
+            // a check that follows a new one, or another check than before, is linked again
+            boolean relinked = last == null ? entry.previousId != null : last.tap != null || !last.id.equals(entry.previousId);
+
+            if (entry.tap != null) {
+                entry.checkedIn = checkedIn;
+                entry.duration = duration;
+                entry.previous = last;
+                inserted.add(entry);
+            }
+            else if (entry.checkedIn != checkedIn || !entry.duration.equals(duration) || relinked) {
+                entry.checkedIn = checkedIn;
+                entry.duration = duration;
+                entry.previous = last;
+                if (relinked)
+                    unlinked.add(entry);
+                updated.add(entry);
+            }
+            last = entry;
+        }
+
+        return new History(person, first, last);
+    }
+
+    private static Entry entry(ResultSet resultSet, int row) throws SQLException {
+        long previousId = resultSet.getLong("previous_id");
+        return new Entry(resultSet.getLong("id"),
+                resultSet.getTimestamp("time").toLocalDateTime(),
+                Duration.ofNanos(resultSet.getLong("duration")),
+                resultSet.getBoolean("checked_in"),
+                resultSet.wasNull() ? null : previousId);
+    }
+
+    /**
+     * The part of the history of a person that has been computed again.
+     */
+    private static class History {
+
+        private final Person person;
+        private final LocalDateTime first;
+        private final Entry last;
+
+        private History(Person person, LocalDateTime first, Entry last) {
+            this.person = person;
+            this.first = first;
+            this.last = last;
+        }
+    }
+
+    /**
+     * A check in the history of a person, either recorded before or from a replayed tap.
+     */
+    private static class Entry {
+
+        private Long id;
+        private Long personId;
+        private final LocalDateTime time;
+        private Duration duration;
+        private boolean checkedIn;
+        /**
+         * The previous id as recorded before.
+         */
+        private final Long previousId;
+        /**
+         * The check this one follows now, whose id may only be known once the ids of the chunk have been fetched.
+         */
+        private Entry previous;
+        private final Tap tap;
+
+        private Entry(Long id, LocalDateTime time, Duration duration, boolean checkedIn, Long previousId) {
+            this.id = id;
+            this.time = time;
+            this.duration = duration;
+            this.checkedIn = checkedIn;
+            this.previousId = previousId;
+            this.tap = null;
+        }
+
+        private Entry(Tap tap) {
+            this.time = tap.getTime();
+            this.previousId = null;
+            this.tap = tap;
+        }
+
+        private MapSqlParameterSource parameters() {
+            return new MapSqlParameterSource("id", id)
+                    .addValue("personId", personId)
+                    .addValue("time", Timestamp.valueOf(time))
+                    .addValue("duration", duration.toNanos())
+                    .addValue("checkedIn", checkedIn)
+                    .addValue("previousId", previous == null ? null : previous.id)
+                    .addValue("tapId", tap == null ? null : tap.getTapId())
+                    .addValue("kioskId", tap == null ? null : tap.getKioskId());
+        }
+
+        private Checkin toCheckin(Person person) {
+            return new Checkin(person, time, duration, checkedIn);
+        }
+    }
+
+}
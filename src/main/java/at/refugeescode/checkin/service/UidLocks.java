@@ -0,0 +1,32 @@
+package at.refugeescode.checkin.service;
+
+import com.google.common.util.concurrent.Striped;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Serializes the writes of checks of the same uid within this instance, while checks of different people run in
+ * parallel. Across instances, the unique previous id of a check takes over, and a lock on the person for their first
+ * check.
+ */
+@Component
+public class UidLocks {
+
+    private static final int LOCK_STRIPES = 256;
+
+    private final Striped<Lock> locks = Striped.lock(LOCK_STRIPES);
+
+    public Lock get(String uid) {
+        return locks.get(uid);
+    }
+
+    /**
+     * Returns the locks of all given uids, in an order that is the same for every caller, so that taking them one
+     * after the other cannot deadlock.
+     */
+    public Iterable<Lock> getAll(Collection<String> uids) {
+        return locks.bulkGet(uids);
+    }
+}
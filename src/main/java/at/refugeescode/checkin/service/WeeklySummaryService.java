@@ -1,9 +1,13 @@
 package at.refugeescode.checkin.service;
 
-import at.refugeescode.checkin.domain.Checkin;
-import at.refugeescode.checkin.domain.CheckinRepository;
+import at.refugeescode.checkin.config.JobMonitor;
+import at.refugeescode.checkin.domain.DailyDuration;
 import at.refugeescode.checkin.domain.Person;
 import at.refugeescode.checkin.domain.PersonRepository;
+import at.refugeescode.checkin.dto.WeeklySummaryReport;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.AllArgsConstructor;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -11,40 +15,75 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.time.DayOfWeek;
 import java.time.Duration;
 import java.time.LocalDate;
-import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.time.temporal.TemporalAdjusters;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
+/**
+ * Sends every person the time they were checked in during the last week, and the trainer a table of everybody.
+ * <p>
+ * The run has three stages. People are split into chunks of {@code checkin.summary.chunkSize}, and the daily totals
+ * of every chunk are read and added up (aggregate) and its mails written from precompiled templates (render) on a
+ * pool of {@code checkin.summary.workers} threads. The mails of all chunks are then written to the outbox in a single
+ * transaction (enqueue), which a dry run skips.
+ */
 @Service
 @RequiredArgsConstructor(onConstructor = @__(@Autowired))
 @Slf4j
 public class WeeklySummaryService {
 
-    private static final String PERSONAL_MESSAGE = "Hello %s!<br/><br/>" +
+    private static final MailTemplate PERSONAL_MESSAGE = MailTemplate.compile("Hello %s!<br/><br/>" +
             "Another week has passed and we're happy to share with you how much time you were present!<br/></br/>" +
-            "During last week, from %s until %s, you have been checked in for %s.<br/></br/>" +
+            "During last week, from %s until %s, you have been checked in for %s hours and %s minutes.<br/></br/>" +
             "Happy coding and see you next week!<br/><br/>" +
-            "Your refugees{code}-Team";
-    private static final String SUMMARY_MESSAGE = "Hello Trainer!<br/><br/>" +
+            "Your refugees{code}-Team");
+    private static final MailTemplate SUMMARY_MESSAGE = MailTemplate.compile("Hello Trainer!<br/><br/>" +
             "Here's the summary for the week from %s until %s:" +
             "<table>" +
             "%s" +
             "</table>" +
             "<br/><br/>" +
-            "Happy coding!";
-    private static final String SUMMARY_ROW = "<tr><td>%s</td><td>%s</td></tr>";
+            "Happy coding!");
+    private static final MailTemplate SUMMARY_ROW = MailTemplate.compile("<tr><td>%s</td><td>%s:%s</td></tr>");
+
+    private static final String[] TWO_DIGITS = new String[60];
+
+    static {
+        for (int i = 0; i < TWO_DIGITS.length; i++)
+            TWO_DIGITS[i] = String.format("%02d", i);
+    }
+
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("EEEE, dd.MM.yyyy");
 
     @NonNull
     private final PersonRepository personRepository;
     @NonNull
-    private final CheckinRepository checkinRepository;
+    private final DailyAttendanceService dailyAttendanceService;
     @NonNull
     private final MailService mailService;
+    @NonNull
+    private final JobMonitor jobMonitor;
+    @NonNull
+    private final JobLeases jobLeases;
+    @NonNull
+    private final PlatformTransactionManager transactionManager;
 
     @Value("${checkin.mail.trainer}")
     private String trainer;
@@ -52,55 +91,163 @@ public class WeeklySummaryService {
     private String webmaster;
     @Value("${checkin.mail.weekly}")
     private String weekly;
+    @Value("${checkin.summary.workers:4}")
+    private int workers;
+    @Value("${checkin.summary.chunkSize:250}")
+    private int chunkSize;
+
+    private ThreadPoolExecutor executor;
+    private TransactionTemplate transaction;
+
+    @PostConstruct
+    protected void initialize() {
+        transaction = new TransactionTemplate(transactionManager);
+        // when all workers are busy and the queue is full, the scheduler thread renders the next chunk itself
+        executor = new ThreadPoolExecutor(workers, workers, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(workers),
+                new ThreadFactoryBuilder().setNameFormat("WeeklySummary-%d").setDaemon(true).build(),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    @PreDestroy
+    protected void shutdown() throws InterruptedException {
+        executor.shutdown();
+        executor.awaitTermination(5, TimeUnit.SECONDS);
+    }
 
     @Scheduled(cron = "${checkin.mail.weekly}")
+    @Leased
     public void sendWeeklyMail() {
         log.info("Sending weekly mails");
+        WeeklySummaryReport report = summarize(false);
+        jobMonitor.count("people", report.getPeople());
+        jobMonitor.count("mails", report.getMails());
+        log.info("Sent weekly mails to {} people in {} ms, aggregated in {} ms, rendered in {} ms, enqueued in {} ms",
+                report.getPeople(), report.getTotalMillis(), report.getAggregateMillis(), report.getRenderMillis(),
+                report.getEnqueueMillis());
+    }
+
+    /**
+     * Aggregates and renders the summaries of the last week, and queues them unless this is a dry run.
+     *
+     * @return the time spent in every stage
+     */
+    public WeeklySummaryReport summarize(boolean dryRun) {
+        long start = System.nanoTime();
 
         LocalDate previousOrSameSunday = LocalDate.now().with(TemporalAdjusters.previousOrSame(DayOfWeek.SUNDAY));
-        LocalDateTime startOfToday = previousOrSameSunday.atStartOfDay();
-        LocalDateTime startOfLastWeek = previousOrSameSunday.minusDays(7).atStartOfDay();
-
-        DateTimeFormatter dateFormatter = DateTimeFormatter.ofPattern("EEEE, dd.MM.yyyy");
-        String formattedStartOfToday = dateFormatter.format(previousOrSameSunday.minusDays(1));
-        String formattedStartOfLastWeek = dateFormatter.format(previousOrSameSunday.minusDays(7));
-
-        StringBuilder rowMessageBuilder = new StringBuilder();
-
-        for (Person person : personRepository.findAllByOrderByName()) {
-
-            Duration total = Duration.ZERO;
-            List<Checkin> checkins = checkinRepository.findByPersonAndCheckedInFalseOrderByTime(person);
-            for (Checkin checkin : checkins) {
-                if (checkin.getTime().isAfter(startOfLastWeek) && !checkin.getTime().isAfter(startOfToday))
-                    total = total.plus(checkin.getDuration());
-            }
-
-            rowMessageBuilder.append(String.format(SUMMARY_ROW,
-                    person.getName(),
-                    formatDuration(total, "%d:%02d")
-            ));
-
-            String personalMessage = String.format(PERSONAL_MESSAGE,
-                    person.getName(),
-                    formattedStartOfLastWeek,
-                    formattedStartOfToday,
-                    formatDuration(total, "%d hours and %d minutes")
-            );
-
-            //send mail to user with summary of hours during the last week
-            mailService.sendMail(person, null, webmaster,
-                    "Your RefugeesCode Weekly Attendance Summary",
-                    personalMessage);
+        LocalDate startOfLastWeek = previousOrSameSunday.minusDays(7);
+        Week week = new Week(startOfLastWeek, previousOrSameSunday,
+                DATE_FORMATTER.format(startOfLastWeek), DATE_FORMATTER.format(previousOrSameSunday.minusDays(1)));
+
+        List<Person> people = personRepository.findAllByOrderByName();
+        List<List<Person>> chunks = Lists.partition(people, chunkSize);
+
+        List<Future<RenderedChunk>> futures = new ArrayList<>(chunks.size());
+        for (List<Person> chunk : chunks)
+            futures.add(executor.submit(() -> render(chunk, week)));
+
+        List<String> personalMessages = new ArrayList<>(people.size());
+        StringBuilder rows = new StringBuilder();
+        long aggregateNanos = 0;
+        long renderNanos = 0;
+        for (Future<RenderedChunk> future : futures) {
+            RenderedChunk chunk = get(future);
+            personalMessages.addAll(chunk.personalMessages);
+            rows.append(chunk.rows);
+            aggregateNanos += chunk.aggregateNanos;
+            renderNanos += chunk.renderNanos;
         }
+        String summaryMessage = SUMMARY_MESSAGE.render(new StringBuilder(rows.length() + 256),
+                week.formattedStart, week.formattedEnd, rows).toString();
+        long rendered = System.nanoTime();
 
-        String overallSummaryMessage = String.format(SUMMARY_MESSAGE,
-                formattedStartOfLastWeek,
-                formattedStartOfToday,
-                rowMessageBuilder.toString());
+        int mails = 0;
+        if (!dryRun) {
+            //send mail to every user with summary of hours during the last week
+            mails = transaction.execute(status -> {
+                jobLeases.fence();
+                return mailService.sendMails(people, personalMessages, null, webmaster,
+                        "Your RefugeesCode Weekly Attendance Summary");
+            });
 
-        //send mail to admin with summary of hours during the last week for all users
-        mailService.sendMail(trainer, null, null, "RefugeesCode Attendance Summary", overallSummaryMessage);
+            //send mail to admin with summary of hours during the last week for all users
+            mailService.sendMail(trainer, null, null, "RefugeesCode Attendance Summary", summaryMessage);
+        }
+        long end = System.nanoTime();
+
+        return new WeeklySummaryReport(dryRun, people.size(), chunks.size(), mails,
+                TimeUnit.NANOSECONDS.toMillis(aggregateNanos), TimeUnit.NANOSECONDS.toMillis(renderNanos),
+                TimeUnit.NANOSECONDS.toMillis(rendered - start), TimeUnit.NANOSECONDS.toMillis(end - rendered),
+                TimeUnit.NANOSECONDS.toMillis(end - start));
+    }
+
+    private RenderedChunk render(List<Person> people, Week week) {
+        long start = System.nanoTime();
+        List<Long> personIds = people.stream().map(Person::getId).collect(Collectors.toList());
+        Map<Long, Duration> totals = totals(dailyAttendanceService.dailyDurations(week.start, week.end, personIds));
+        long aggregated = System.nanoTime();
+
+        // every personal message is rendered into the same buffer, which then only grows for a longer name
+        StringBuilder buffer = new StringBuilder(512);
+        StringBuilder rows = new StringBuilder(people.size() * 64);
+        List<String> personalMessages = new ArrayList<>(people.size());
+        for (Person person : people) {
+            long minutes = ceilMinutes(totals.getOrDefault(person.getId(), Duration.ZERO));
+            long hoursPart = minutes / 60;
+            int minutesPart = (int) (minutes % 60);
+
+            SUMMARY_ROW.render(rows, person.getName(), hoursPart, TWO_DIGITS[minutesPart]);
+
+            buffer.setLength(0);
+            PERSONAL_MESSAGE.render(buffer, person.getName(), week.formattedStart, week.formattedEnd, hoursPart, minutesPart);
+            personalMessages.add(buffer.toString());
+        }
+
+        return new RenderedChunk(personalMessages, rows, aggregated - start, System.nanoTime() - aggregated);
+    }
+
+    private static <T> T get(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the weekly summary", ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException)
+                throw (RuntimeException) ex.getCause();
+            throw new IllegalStateException(ex.getCause());
+        }
+    }
+
+    @AllArgsConstructor
+    private static class Week {
+        private final LocalDate start;
+        private final LocalDate end;
+        private final String formattedStart;
+        private final String formattedEnd;
+    }
+
+    @AllArgsConstructor
+    private static class RenderedChunk {
+        private final List<String> personalMessages;
+        private final CharSequence rows;
+        private final long aggregateNanos;
+        private final long renderNanos;
+    }
+
+    /**
+     * Returns the total duration of every person with at least one check out between start (inclusive) and end
+     * (exclusive), by person id. The daily totals of all people are read with a single query.
+     */
+    public Map<Long, Duration> totals(LocalDate start, LocalDate end) {
+        return totals(dailyAttendanceService.dailyDurations(start, end));
+    }
+
+    private static Map<Long, Duration> totals(List<DailyDuration> dailyDurations) {
+        Map<Long, Duration> totals = new HashMap<>();
+        for (DailyDuration dailyDuration : dailyDurations)
+            totals.merge(dailyDuration.getPersonId(), dailyDuration.getDuration(), Duration::plus);
+        return totals;
     }
 
     private static long ceilMinutes(Duration duration) {
@@ -109,11 +256,4 @@ public class WeeklySummaryService {
         else
             return duration.toMinutes();
     }
-
-    private static String formatDuration(Duration duration, String format) {
-        duration = Duration.ofMinutes(ceilMinutes(duration));
-        long hoursPart = duration.toHours();
-        long minutesPart = duration.minusHours(hoursPart).toMinutes();
-        return String.format(format, hoursPart, minutesPart);
-    }
 }
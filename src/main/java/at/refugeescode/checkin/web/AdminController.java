@@ -0,0 +1,128 @@
+package at.refugeescode.checkin.web;
+
+import at.refugeescode.checkin.config.InstrumentedTaskExecutor;
+import at.refugeescode.checkin.config.JobMonitor;
+import at.refugeescode.checkin.config.MailDigestAppender;
+import at.refugeescode.checkin.config.SlackAppender;
+import at.refugeescode.checkin.config.TracingAspect;
+import at.refugeescode.checkin.service.ActivityStream;
+import at.refugeescode.checkin.service.JobLeases;
+import at.refugeescode.checkin.service.MailService;
+import at.refugeescode.checkin.dto.JobRun;
+import at.refugeescode.checkin.dto.WeeklySummaryReport;
+import at.refugeescode.checkin.service.PersonCache;
+import at.refugeescode.checkin.service.WeeklySummaryService;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.Appender;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/admin")
+@RequiredArgsConstructor(onConstructor = @__(@Autowired))
+@Slf4j
+public class AdminController {
+
+    @NonNull
+    private final MailService mailService;
+    @NonNull
+    private final TracingAspect tracingAspect;
+    @NonNull
+    private final ActivityStream activityStream;
+    @NonNull
+    private final PersonCache personCache;
+    @NonNull
+    private final WeeklySummaryService weeklySummaryService;
+    @NonNull
+    private final InstrumentedTaskExecutor asyncExecutor;
+    @NonNull
+    private final JobMonitor jobMonitor;
+    @NonNull
+    private final JobLeases jobLeases;
+
+    @GetMapping("/metrics/mail")
+    public ResponseEntity<Map<String, Number>> mailMetrics() {
+        return new ResponseEntity<>(mailService.getMetrics(), HttpStatus.OK);
+    }
+
+    @GetMapping("/metrics/tracing")
+    public ResponseEntity<Map<String, Map<String, Number>>> tracingMetrics() {
+        return new ResponseEntity<>(tracingAspect.getMetrics(), HttpStatus.OK);
+    }
+
+    @GetMapping("/metrics/stream")
+    public ResponseEntity<Map<String, Number>> streamMetrics() {
+        return new ResponseEntity<>(activityStream.getMetrics(), HttpStatus.OK);
+    }
+
+    @GetMapping("/metrics/personCache")
+    public ResponseEntity<Map<String, Number>> personCacheMetrics() {
+        return new ResponseEntity<>(personCache.getMetrics(), HttpStatus.OK);
+    }
+
+    @GetMapping("/metrics/async")
+    public ResponseEntity<Map<String, Number>> asyncMetrics() {
+        return new ResponseEntity<>(asyncExecutor.getMetrics(), HttpStatus.OK);
+    }
+
+    /**
+     * Returns the last runs of every scheduled job, newest first.
+     */
+    @GetMapping("/jobs")
+    public ResponseEntity<Map<String, List<JobRun>>> jobs() {
+        return new ResponseEntity<>(jobMonitor.getRuns(), HttpStatus.OK);
+    }
+
+    @GetMapping("/metrics/leases")
+    public ResponseEntity<Map<String, Number>> leaseMetrics() {
+        return new ResponseEntity<>(jobLeases.getMetrics(), HttpStatus.OK);
+    }
+
+    /**
+     * Renders the weekly summary of every person without sending it, and reports the time spent in every stage.
+     */
+    @PostMapping("/weeklySummary/dryRun")
+    public ResponseEntity<WeeklySummaryReport> weeklySummaryDryRun() {
+        return new ResponseEntity<>(weeklySummaryService.summarize(true), HttpStatus.OK);
+    }
+
+    @GetMapping("/metrics/slack")
+    public ResponseEntity<Map<String, Number>> slackMetrics() {
+        Appender<ILoggingEvent> appender = getRootAppender("slack");
+
+        if (!(appender instanceof SlackAppender))
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+
+        return new ResponseEntity<>(((SlackAppender) appender).getMetrics(), HttpStatus.OK);
+    }
+
+    @GetMapping("/metrics/mailDigest")
+    public ResponseEntity<Map<String, Number>> mailDigestMetrics() {
+        Appender<ILoggingEvent> appender = getRootAppender("mail");
+
+        if (!(appender instanceof MailDigestAppender))
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+
+        return new ResponseEntity<>(((MailDigestAppender) appender).getMetrics(), HttpStatus.OK);
+    }
+
+    private static Appender<ILoggingEvent> getRootAppender(String name) {
+        LoggerContext loggerContext = (LoggerContext) LoggerFactory.getILoggerFactory();
+        return loggerContext.getLogger(Logger.ROOT_LOGGER_NAME).getAppender(name);
+    }
+
+}
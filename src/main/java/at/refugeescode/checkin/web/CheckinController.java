@@ -2,40 +2,92 @@ package at.refugeescode.checkin.web;
 
 import at.refugeescode.checkin.config.SlackAppender;
 import at.refugeescode.checkin.domain.*;
-import at.refugeescode.checkin.dto.Attendance;
-import at.refugeescode.checkin.dto.Overview;
+import at.refugeescode.checkin.dto.CheckLog;
+import at.refugeescode.checkin.dto.PersonStatus;
+import at.refugeescode.checkin.dto.Tap;
+import at.refugeescode.checkin.dto.TapBatchResult;
+import at.refugeescode.checkin.service.ActivityStream;
+import at.refugeescode.checkin.service.CheckLogService;
 import at.refugeescode.checkin.service.CheckinService;
+import at.refugeescode.checkin.service.DailyAttendanceService;
+import at.refugeescode.checkin.service.ExportService;
+import at.refugeescode.checkin.service.OverviewCache;
+import at.refugeescode.checkin.service.PersonCache;
+import at.refugeescode.checkin.service.TapIngestionService;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.projection.ProjectionFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.context.SecurityContextHolder;
-import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.time.YearMonth;
 import java.time.format.DateTimeFormatter;
-import java.util.ArrayList;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
 
 @RestController
 @RequiredArgsConstructor(onConstructor = @__(@Autowired))
 @Slf4j
 public class CheckinController {
 
-    @NonNull
-    private final PersonRepository personRepository;
+    /**
+     * The media type of the columnar overview, see {@link CheckinService#writeColumnarOverview}.
+     */
+    public static final MediaType COLUMNAR_OVERVIEW = MediaType.valueOf("application/vnd.checkin.overview.columnar+json");
+    private static final MediaType COLUMNAR_OVERVIEW_UTF8 = MediaType.valueOf(COLUMNAR_OVERVIEW + ";charset=UTF-8");
+
     @NonNull
     private final CheckinService checkinService;
     @NonNull
-    private final ProjectionFactory projectionFactory;
+    private final DailyAttendanceService dailyAttendanceService;
+    @NonNull
+    private final CheckLogService checkLogService;
+    @NonNull
+    private final OverviewCache overviewCache;
+    @NonNull
+    private final ActivityStream activityStream;
+    @NonNull
+    private final TapIngestionService tapIngestionService;
+    @NonNull
+    private final PersonCache personCache;
+    @NonNull
+    private final ExportService exportService;
+
+    /**
+     * The mapper of the REST API, so that cached overviews look exactly like the other responses.
+     */
+    @Autowired
+    @Qualifier("objectMapper")
+    private ObjectMapper objectMapper;
+
+    @Value("${checkin.overview.maxAge}")
+    private long overviewMaxAge;
 
     @GetMapping("/hello")
     public ResponseEntity<Void> hello() {
@@ -51,7 +103,6 @@ public class CheckinController {
     }
 
     @GetMapping("/people/{uid}/checkin")
-    @Transactional
     public ResponseEntity<Boolean> checkin(@PathVariable("uid") String uid) {
 
         Checkin checkin = checkinService.newCheck(uid);
@@ -65,11 +116,19 @@ public class CheckinController {
         return new ResponseEntity<>(checkin.isCheckedIn(), HttpStatus.OK);
     }
 
+    /**
+     * Records the taps a kiosk buffered while it was offline, at the time they were made. Taps that have been recorded
+     * before are skipped, so a kiosk can safely send a batch again when it did not get the response.
+     */
+    @PostMapping("/taps")
+    public ResponseEntity<TapBatchResult> taps(@RequestBody List<Tap> taps) {
+        return new ResponseEntity<>(tapIngestionService.ingest(taps), HttpStatus.OK);
+    }
+
     @GetMapping("/people/{uid}/status")
-    @Transactional
     public ResponseEntity<Boolean> status(@PathVariable("uid") String uid) {
 
-        Person person = personRepository.findByUid(uid);
+        Person person = personCache.findByUid(uid);
 
         if (person == null)
             return new ResponseEntity<>(HttpStatus.NOT_FOUND);
@@ -77,32 +136,139 @@ public class CheckinController {
         return new ResponseEntity<>(checkinService.isCheckedIn(person), HttpStatus.OK);
     }
 
+    /**
+     * Returns the overview of the given month, or its columnar form for clients that accept
+     * {@link #COLUMNAR_OVERVIEW}. Responses carry the version of the month as ETag and Last-Modified header and are
+     * answered with 304 Not Modified while the month is unchanged. The serialized overview is cached until the month
+     * changes.
+     */
     @GetMapping("/overview/{yearMonth}")
-    @Transactional
-    public ResponseEntity<Overview> overview(@PathVariable("yearMonth") YearMonth yearMonth) {
+    public ResponseEntity<byte[]> overview(@PathVariable("yearMonth") YearMonth yearMonth,
+                                           @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept,
+                                           WebRequest request) {
+
+        boolean columnar = acceptsColumnarOverview(accept);
+        String representation = columnar ? "columnar" : "json";
+
+        OverviewCache.Version version = overviewCache.version(yearMonth);
+        String eTag = overviewCache.eTag(yearMonth, representation, version);
+
+        // past months rarely change, the current month has to be revalidated on every request
+        CacheControl cacheControl = yearMonth.isBefore(YearMonth.now())
+                ? CacheControl.maxAge(overviewMaxAge, TimeUnit.SECONDS).cachePrivate()
+                : CacheControl.noCache().cachePrivate();
 
-        List<Person> people = personRepository.findAll();
+        if (request.checkNotModified(eTag, version.getModified().toEpochMilli()))
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).cacheControl(cacheControl).varyBy(HttpHeaders.ACCEPT).build();
 
-        List<Attendance> attendances = new ArrayList<>();
-        for (Person person : people)
-            attendances.add(new Attendance(person.getName(), checkinService.overviewDurations(yearMonth, person)));
+        byte[] body = overviewCache.get(yearMonth, representation, version, () -> {
+            try {
+                if (!columnar)
+                    return objectMapper.writeValueAsBytes(checkinService.overview(yearMonth));
 
-        List<String> columns = checkinService.overviewColumns(yearMonth);
+                ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+                checkinService.writeColumnarOverview(yearMonth, outputStream);
+                return outputStream.toByteArray();
+            } catch (IOException ex) {
+                throw new IllegalStateException("Failed to serialize the overview of " + yearMonth, ex);
+            }
+        });
 
-        return new ResponseEntity<>(new Overview(yearMonth, columns, attendances), HttpStatus.OK);
+        return ResponseEntity.ok()
+                .contentType(columnar ? COLUMNAR_OVERVIEW_UTF8 : MediaType.APPLICATION_JSON_UTF8)
+                .cacheControl(cacheControl)
+                .varyBy(HttpHeaders.ACCEPT)
+                .body(body);
+    }
+
+    private static boolean acceptsColumnarOverview(String accept) {
+        if (accept == null)
+            return false;
+        try {
+            // only when asked for explicitly, wildcards get the default overview
+            return MediaType.parseMediaTypes(accept).stream().anyMatch(mediaType ->
+                    mediaType.getType().equals(COLUMNAR_OVERVIEW.getType()) && mediaType.getSubtype().equals(COLUMNAR_OVERVIEW.getSubtype()));
+        } catch (InvalidMediaTypeException ex) {
+            return false;
+        }
+    }
+
+    @GetMapping("/log")
+    public ResponseEntity<CheckLog> log(@RequestParam(value = "cursor", required = false) String cursor,
+                                        @RequestParam(value = "size", defaultValue = "50") int size,
+                                        @RequestParam(value = "personId", required = false) Long personId,
+                                        @RequestParam(value = "from", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+                                        @RequestParam(value = "to", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to) {
+        try {
+            return new ResponseEntity<>(checkLogService.page(cursor, size, personId, from, to), HttpStatus.OK);
+        } catch (IllegalArgumentException ex) {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+    }
+
+    /**
+     * Streams the check in history from {@code from} (inclusive) until {@code to} (exclusive) as CSV or NDJSON,
+     * compressed with gzip if the client accepts it.
+     */
+    @GetMapping("/export/checkins")
+    public ResponseEntity<StreamingResponseBody> export(@RequestParam(value = "format", defaultValue = "csv") String format,
+                                                        @RequestParam(value = "personId", required = false) Long personId,
+                                                        @RequestParam(value = "from", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+                                                        @RequestParam(value = "to", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+                                                        @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
+        ExportService.Format exportFormat;
+        try {
+            exportFormat = ExportService.Format.valueOf(format.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException ex) {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+
+        LocalDate start = from != null ? from : LocalDate.of(1970, 1, 1);
+        LocalDate end = to != null ? to : LocalDate.now().plusDays(1);
+        boolean gzip = acceptEncoding != null && acceptEncoding.contains("gzip");
+
+        StreamingResponseBody body = outputStream -> {
+            if (gzip) {
+                GZIPOutputStream gzipOutputStream = new GZIPOutputStream(outputStream);
+                exportService.export(exportFormat, personId, start, end, gzipOutputStream);
+                gzipOutputStream.finish();
+            }
+            else {
+                exportService.export(exportFormat, personId, start, end, outputStream);
+            }
+        };
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.parseMediaType(exportFormat.getContentType() + ";charset=UTF-8"));
+        headers.set(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"checkins." + exportFormat.getExtension() + "\"");
+        headers.set(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        if (gzip)
+            headers.set(HttpHeaders.CONTENT_ENCODING, "gzip");
+
+        return new ResponseEntity<>(body, headers, HttpStatus.OK);
+    }
+
+    @PostMapping("/dailyAttendance/rebuild")
+    public ResponseEntity<Integer> rebuildDailyAttendance() {
+        return new ResponseEntity<>(dailyAttendanceService.rebuild(), HttpStatus.OK);
     }
 
     @GetMapping("/public/summary")
-    @Transactional
-    public ResponseEntity<List<PersonStatusProjection>> publicSummary() {
-        List<PersonStatusProjection> personStatusList = createProjectionList(PersonStatusProjection.class, personRepository.findAll());
-        return new ResponseEntity<>(personStatusList, HttpStatus.OK);
+    public ResponseEntity<List<PersonStatus>> publicSummary() {
+        return new ResponseEntity<>(checkinService.personStatuses(), HttpStatus.OK);
     }
 
-    private <T> List<T> createProjectionList(Class<T> projectionType, List<?> sourceList) {
-        return sourceList.stream()
-                .map(source -> projectionFactory.createProjection(projectionType, source))
-                .collect(Collectors.toList());
+    /**
+     * Streams the public summary and every following check as server-sent events, instead of polling the summary.
+     */
+    @GetMapping(value = "/public/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> publicStream() {
+        SseEmitter emitter = activityStream.connect(checkinService::personStatuses);
+
+        if (emitter == null)
+            return new ResponseEntity<>(HttpStatus.SERVICE_UNAVAILABLE);
+
+        return new ResponseEntity<>(emitter, HttpStatus.OK);
     }
 
 }
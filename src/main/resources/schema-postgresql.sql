@@ -0,0 +1,60 @@
+create table if not exists daily_attendance (
+    id bigint not null primary key,
+    person_id bigint not null references person (id),
+    day date not null,
+    duration bigint not null,
+    unique (person_id, day)
+);
+
+create table if not exists outbox_mail (
+    id bigint not null primary key,
+    sender varchar(255) not null,
+    recipient varchar(255) not null,
+    reply_to varchar(255),
+    bcc varchar(255),
+    subject varchar(255) not null,
+    text text not null,
+    status varchar(255) not null,
+    attempts integer not null,
+    created_at timestamp not null,
+    next_attempt_at timestamp not null,
+    claimed_by varchar(255),
+    claimed_at timestamp,
+    sent_at timestamp,
+    last_error varchar(1000)
+);
+
+create index if not exists outbox_mail_status_next_attempt_at_idx on outbox_mail (status, next_attempt_at);
+
+-- the last check of a person is looked up on every tap and for the presence index
+create index if not exists checkin_person_id_time_idx on checkin (person_id, time);
+
+-- two checks can never follow the same check, see CheckinService.newCheck
+alter table checkin add column if not exists previous_id bigint;
+create unique index if not exists checkin_previous_id_key on checkin (previous_id);
+
+-- the check in log pages backwards through (time, id)
+create index if not exists checkin_time_id_idx on checkin (time, id);
+
+-- taps replayed by offline kiosks are recorded once per tap id, see TapIngestionService
+alter table checkin add column if not exists tap_id varchar(255);
+alter table checkin add column if not exists kiosk_id varchar(255);
+create unique index if not exists checkin_tap_id_key on checkin (tap_id);
+
+-- only one instance runs a scheduled job per trigger, see JobLeases
+create table if not exists job_lease (
+    name varchar(255) not null primary key,
+    owner varchar(255),
+    token bigint not null,
+    trigger_time timestamp,
+    acquired_at timestamp,
+    expires_at timestamp
+);
+alter table job_lease add column if not exists completed_trigger timestamp;
+
+-- the version of the overviews of all months, see OverviewCache
+create table if not exists overview_version (
+    id bigint not null primary key,
+    number bigint not null,
+    modified timestamp not null
+);
@@ -0,0 +1,66 @@
+package at.refugeescode.checkin.config;
+
+import at.refugeescode.checkin.Application;
+import at.refugeescode.checkin.service.MailService;
+import org.junit.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AsyncConfigTest {
+
+	private static final String URL = "jdbc:h2:mem:async;DB_CLOSE_DELAY=-1;DB_CLOSE_ON_EXIT=FALSE";
+
+	@Test
+	public void runsQueuedTasksBeforeTheContextCloses() throws Exception {
+		ConfigurableApplicationContext context = new SpringApplicationBuilder(Application.class)
+				.web(false)
+				.run("--spring.datasource.url=" + URL,
+						"--spring.jpa.hibernate.ddl-auto=update",
+						"--spring.jmx.enabled=false",
+						"--checkin.async.corePoolSize=1",
+						"--checkin.async.maxPoolSize=1",
+						"--checkin.mail.enabled=true",
+						"--checkin.mail.queueDelay=3600000");
+		long before = countMails();
+
+		CountDownLatch started = new CountDownLatch(1);
+		context.getBean(InstrumentedTaskExecutor.class).execute(() -> {
+			started.countDown();
+			sleep(500);
+		});
+		started.await(5, TimeUnit.SECONDS);
+		MailService mailService = context.getBean(MailService.class);
+		for (int i = 0; i < 10; i++)
+			mailService.sendMail("from@example.com", "to@example.com", null, null, "Queued " + i, "Still queued on close");
+
+		context.close();
+
+		assertThat(countMails()).isEqualTo(before + 10);
+	}
+
+	private static long countMails() throws SQLException {
+		try (Connection connection = DriverManager.getConnection(URL, "sa", "");
+			 ResultSet count = connection.createStatement().executeQuery("select count(*) from outbox_mail")) {
+			count.next();
+			return count.getLong(1);
+		}
+	}
+
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
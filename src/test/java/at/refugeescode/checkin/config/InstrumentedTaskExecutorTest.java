@@ -0,0 +1,88 @@
+package at.refugeescode.checkin.config;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.core.task.TaskRejectedException;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+public class InstrumentedTaskExecutorTest {
+
+	private final CountDownLatch started = new CountDownLatch(1);
+	private final CountDownLatch release = new CountDownLatch(1);
+	private final AtomicInteger finished = new AtomicInteger();
+
+	private InstrumentedTaskExecutor executor;
+
+	@Before
+	public void setUp() {
+		executor = new InstrumentedTaskExecutor();
+		executor.setCorePoolSize(1);
+		executor.setMaxPoolSize(1);
+		executor.setQueueCapacity(2);
+		executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+		executor.setWaitForTasksToCompleteOnShutdown(true);
+		executor.setAwaitTerminationSeconds(5);
+		executor.initialize();
+	}
+
+	@After
+	public void tearDown() {
+		release.countDown();
+		executor.shutdown();
+	}
+
+	@Test
+	public void countsRejectedTasks() throws InterruptedException {
+		executor.execute(this::block);
+		started.await(5, TimeUnit.SECONDS);
+		executor.execute(finished::incrementAndGet);
+		executor.execute(finished::incrementAndGet);
+
+		try {
+			executor.execute(finished::incrementAndGet);
+			fail("The queue is full");
+		} catch (TaskRejectedException ex) {
+			// expected
+		}
+
+		assertThat(executor.getMetrics())
+				.containsEntry("threads", 1)
+				.containsEntry("active", 1)
+				.containsEntry("queued", 2)
+				.containsEntry("queue.remaining", 0)
+				.containsEntry("rejected", 1L);
+	}
+
+	@Test
+	public void drainsTheQueueOnShutdown() throws InterruptedException {
+		executor.execute(this::block);
+		started.await(5, TimeUnit.SECONDS);
+		executor.execute(finished::incrementAndGet);
+		executor.execute(finished::incrementAndGet);
+
+		release.countDown();
+		executor.shutdown();
+
+		assertThat(finished.get()).isEqualTo(3);
+		assertThat(executor.getMetrics()).containsEntry("completed", 3L);
+	}
+
+	private void block() {
+		started.countDown();
+		try {
+			release.await(5, TimeUnit.SECONDS);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+		finished.incrementAndGet();
+	}
+
+}
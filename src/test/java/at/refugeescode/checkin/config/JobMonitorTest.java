@@ -0,0 +1,105 @@
+package at.refugeescode.checkin.config;
+
+import at.refugeescode.checkin.dto.JobRun;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.scheduling.support.ScheduledMethodRunnable;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Date;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+public class JobMonitorTest {
+
+	private JobMonitor jobMonitor;
+
+	@Before
+	public void setUp() {
+		jobMonitor = new JobMonitor(new MockEnvironment().withProperty("checkin.jobs.budget.Jobs.slow", "1"));
+		ReflectionTestUtils.setField(jobMonitor, "budget", 60000L);
+		ReflectionTestUtils.setField(jobMonitor, "history", 2);
+	}
+
+	@Test
+	public void recordsTheItemsOfTheLastRuns() throws NoSuchMethodException {
+		Runnable task = jobMonitor.monitor(scheduled("count"), null);
+
+		task.run();
+		task.run();
+		task.run();
+
+		List<JobRun> runs = jobMonitor.getRuns().get("Jobs.count");
+		assertThat(runs).hasSize(2);
+		assertThat(runs.get(0).getOutcome()).isEqualTo(JobRun.Outcome.SUCCEEDED);
+		assertThat(runs.get(0).getItems()).containsEntry("people", 3L);
+		assertThat(runs.get(0).isOverrun()).isFalse();
+		assertThat(runs.get(0).getStart()).isGreaterThanOrEqualTo(runs.get(1).getStart());
+	}
+
+	@Test
+	public void flagsRunsOverTheirBudgetOrPastTheirNextTrigger() throws NoSuchMethodException {
+		jobMonitor.monitor(scheduled("slow"), null).run();
+		jobMonitor.monitor(scheduled("late"), start -> new Date(start.getTime() + 1)).run();
+
+		assertThat(jobMonitor.getRuns().get("Jobs.slow").get(0).isOverrun()).isTrue();
+		assertThat(jobMonitor.getRuns().get("Jobs.late").get(0).isOverrun()).isTrue();
+	}
+
+	@Test
+	public void recordsFailedRuns() throws NoSuchMethodException {
+		try {
+			jobMonitor.monitor(scheduled("fail"), null).run();
+			fail("The job fails");
+		} catch (RuntimeException ex) {
+			// expected
+		}
+
+		JobRun run = jobMonitor.getRuns().get("Jobs.fail").get(0);
+		assertThat(run.getOutcome()).isEqualTo(JobRun.Outcome.FAILED);
+		assertThat(run.getError()).contains("disk full");
+	}
+
+	@Test
+	public void ignoresOtherTasksAndCountsOutsideOfRuns() {
+		Runnable task = () -> jobMonitor.count("people", 1);
+
+		assertThat(jobMonitor.monitor(task, null)).isSameAs(task);
+		task.run();
+		assertThat(jobMonitor.getRuns()).isEmpty();
+	}
+
+	private ScheduledMethodRunnable scheduled(String method) throws NoSuchMethodException {
+		return new ScheduledMethodRunnable(new Jobs(jobMonitor), method);
+	}
+
+	public static class Jobs {
+
+		private final JobMonitor jobMonitor;
+
+		public Jobs(JobMonitor jobMonitor) {
+			this.jobMonitor = jobMonitor;
+		}
+
+		public void count() {
+			jobMonitor.count("people", 1);
+			jobMonitor.count("people", 2);
+		}
+
+		public void slow() throws InterruptedException {
+			Thread.sleep(10);
+		}
+
+		public void late() throws InterruptedException {
+			Thread.sleep(10);
+		}
+
+		public void fail() {
+			throw new IllegalStateException("disk full");
+		}
+	}
+
+}
@@ -0,0 +1,35 @@
+package at.refugeescode.checkin.config;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+public class LatencyHistogramTest {
+
+	@Test
+	public void bucketsContainTheirValues() {
+		for (long value = 0; value < 100_000; value++) {
+			int index = LatencyHistogram.index(value);
+			assertThat(LatencyHistogram.upperBound(index)).isGreaterThanOrEqualTo(value);
+			if (index > 0)
+				assertThat(LatencyHistogram.upperBound(index - 1)).isLessThan(value);
+		}
+		assertThat(LatencyHistogram.upperBound(LatencyHistogram.index(Long.MAX_VALUE))).isEqualTo(Long.MAX_VALUE);
+	}
+
+	@Test
+	public void percentilesAreWithinTheBucketPrecision() {
+		LatencyHistogram histogram = new LatencyHistogram("test");
+		for (long micros = 1; micros <= 1000; micros++)
+			histogram.record(micros * 1000);
+
+		assertThat(histogram.getCount()).isEqualTo(1000);
+		assertThat((double) histogram.percentile(50)).isCloseTo(500_000, within(500_000 * 0.125));
+		assertThat((double) histogram.percentile(95)).isCloseTo(950_000, within(950_000 * 0.125));
+		assertThat((double) histogram.percentile(99)).isCloseTo(990_000, within(990_000 * 0.125));
+		assertThat(histogram.percentile(100)).isEqualTo(1_000_000);
+		assertThat(histogram.snapshot().get("max")).isEqualTo(1000L);
+	}
+
+}
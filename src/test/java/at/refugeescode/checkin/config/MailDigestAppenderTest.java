@@ -0,0 +1,74 @@
+package at.refugeescode.checkin.config;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.boolex.OnErrorEvaluator;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import com.icegreen.greenmail.util.GreenMail;
+import com.icegreen.greenmail.util.GreenMailUtil;
+import com.icegreen.greenmail.util.ServerSetupTest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.mail.internet.MimeMessage;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MailDigestAppenderTest {
+
+	private GreenMail greenMail;
+	private LoggerContext loggerContext;
+	private MailDigestAppender appender;
+
+	@Before
+	public void setUp() {
+		greenMail = new GreenMail(ServerSetupTest.SMTP);
+		greenMail.start();
+
+		loggerContext = new LoggerContext();
+
+		OnErrorEvaluator evaluator = new OnErrorEvaluator();
+		evaluator.setContext(loggerContext);
+		evaluator.start();
+
+		appender = new MailDigestAppender();
+		appender.setContext(loggerContext);
+		appender.setName("mail");
+		appender.setSmtpHost("localhost");
+		appender.setSmtpPort(ServerSetupTest.SMTP.getPort());
+		appender.setFrom("checkin@example.com");
+		appender.setTo("webmaster@example.com");
+		appender.setEvaluator(evaluator);
+		appender.setWindow(300);
+		appender.start();
+	}
+
+	@After
+	public void tearDown() {
+		appender.stop();
+		greenMail.stop();
+	}
+
+	@Test
+	public void mailsIdenticalEventsOnceWithTheirCount() throws InterruptedException {
+		IllegalStateException exception = new IllegalStateException("broken");
+		for (int i = 0; i < 5; i++)
+			appender.doAppend(event(Level.ERROR, "failed", exception));
+		appender.doAppend(event(Level.ERROR, "another failure", null));
+		appender.doAppend(event(Level.INFO, "not mailed", null));
+
+		assertThat(greenMail.waitForIncomingEmail(5000, 1)).isTrue();
+
+		MimeMessage[] messages = greenMail.getReceivedMessages();
+		assertThat(messages).hasSize(1);
+		String body = GreenMailUtil.getBody(messages[0]);
+		assertThat(GreenMailUtil.getHeaders(messages[0])).contains("6 events, 2 distinct");
+		assertThat(body).contains("<td>5</td>", "failed", "another failure", "IllegalStateException").doesNotContain("not mailed");
+	}
+
+	private LoggingEvent event(Level level, String message, Throwable throwable) {
+		return new LoggingEvent(getClass().getName(), loggerContext.getLogger(getClass()), level, message, throwable, null);
+	}
+
+}
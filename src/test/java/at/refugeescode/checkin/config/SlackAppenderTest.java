@@ -0,0 +1,143 @@
+package at.refugeescode.checkin.config;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.PatternLayout;
+import ch.qos.logback.classic.boolex.OnMarkerEvaluator;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.util.StreamUtils;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SlackAppenderTest {
+
+	private HttpServer server;
+	private final List<String> payloads = new CopyOnWriteArrayList<>();
+	private final CountDownLatch release = new CountDownLatch(1);
+	private volatile boolean slow;
+
+	private LoggerContext loggerContext;
+	private SlackAppender appender;
+
+	@Before
+	public void setUp() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/hook", exchange -> {
+			String body = StreamUtils.copyToString(exchange.getRequestBody(), StandardCharsets.UTF_8);
+			payloads.add(URLDecoder.decode(body.substring("payload=".length()), "UTF-8"));
+			if (slow) {
+				try {
+					release.await(10, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			exchange.sendResponseHeaders(200, 2);
+			exchange.getResponseBody().write("ok".getBytes(StandardCharsets.UTF_8));
+			exchange.close();
+		});
+		server.start();
+
+		loggerContext = new LoggerContext();
+
+		OnMarkerEvaluator evaluator = new OnMarkerEvaluator();
+		evaluator.setContext(loggerContext);
+		evaluator.addMarker(SlackAppender.POST_TO_SLACK.getName());
+		evaluator.start();
+
+		PatternLayout layout = new PatternLayout();
+		layout.setContext(loggerContext);
+		layout.setPattern("%msg%n");
+		layout.start();
+
+		appender = new SlackAppender();
+		appender.setContext(loggerContext);
+		appender.setName("slack");
+		appender.setWebhookURL("http://localhost:" + server.getAddress().getPort() + "/hook");
+		appender.setEvaluator(evaluator);
+		appender.setLayout(layout);
+	}
+
+	@After
+	public void tearDown() {
+		release.countDown();
+		appender.stop();
+		server.stop(0);
+	}
+
+	@Test
+	public void mergesMessagesThatArriveTogether() throws InterruptedException {
+		appender.setBatchWindow(500);
+		appender.start();
+
+		for (int i = 0; i < 3; i++)
+			appender.doAppend(event("message " + i));
+
+		awaitSent(3);
+
+		assertThat(payloads).hasSize(1);
+		assertThat(payloads.get(0)).contains("message 0", "message 1", "message 2");
+		assertThat(appender.getPosts().get()).isEqualTo(1);
+	}
+
+	@Test
+	public void dropsMessagesInsteadOfBlockingWhenSlackIsSlow() throws InterruptedException {
+		slow = true;
+		appender.setQueueSize(2);
+		appender.setBatchWindow(0);
+		appender.setMaxBatchSize(1);
+		appender.start();
+
+		long start = System.nanoTime();
+		for (int i = 0; i < 10; i++)
+			appender.doAppend(event("message " + i));
+		long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+		assertThat(millis).isLessThan(1000);
+		assertThat(appender.getDroppedMessages().get()).isGreaterThanOrEqualTo(7);
+
+		release.countDown();
+		awaitSent(10 - appender.getDroppedMessages().get());
+	}
+
+	@Test
+	public void ignoresMessagesWithoutTheMarker() throws InterruptedException {
+		appender.setBatchWindow(0);
+		appender.start();
+
+		appender.doAppend(new LoggingEvent(getClass().getName(), loggerContext.getLogger(getClass()), Level.INFO, "not for slack", null, null));
+		appender.doAppend(event("for slack"));
+
+		awaitSent(1);
+
+		assertThat(payloads).hasSize(1);
+		assertThat(payloads.get(0)).contains("for slack").doesNotContain("not for slack");
+	}
+
+	private LoggingEvent event(String message) {
+		LoggingEvent event = new LoggingEvent(getClass().getName(), loggerContext.getLogger(getClass()), Level.INFO, message, null, null);
+		event.setMarker(SlackAppender.POST_TO_SLACK);
+		return event;
+	}
+
+	private void awaitSent(long messages) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 10000;
+		while (appender.getSentMessages().get() < messages && System.currentTimeMillis() < deadline)
+			Thread.sleep(20);
+		assertThat(appender.getSentMessages().get()).isEqualTo(messages);
+	}
+
+}
@@ -0,0 +1,44 @@
+package at.refugeescode.checkin.config;
+
+import org.junit.Test;
+import org.springframework.aop.aspectj.annotation.AspectJProxyFactory;
+import org.springframework.stereotype.Service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TracingAspectTest {
+
+	@Test
+	public void keepsTheHistogramsOfOverloadsApart() {
+		TracingAspect tracingAspect = new TracingAspect();
+		tracingAspect.setMetricsEnabled(true);
+		AspectJProxyFactory proxyFactory = new AspectJProxyFactory(new Greeter());
+		proxyFactory.setProxyTargetClass(true);
+		proxyFactory.addAspect(tracingAspect);
+		Greeter greeter = proxyFactory.getProxy();
+
+		greeter.greet("you");
+		greeter.greet("you", 2);
+		greeter.greet("you", 3);
+
+		assertThat(tracingAspect.getMetrics()).containsOnlyKeys("Greeter.greet(String)", "Greeter.greet(String,int)");
+		assertThat(tracingAspect.getMetrics().get("Greeter.greet(String,int)")).containsEntry("count", 2L);
+	}
+
+	@Service
+	public static class Greeter {
+
+		public String greet(String name) {
+			return "Hello " + name;
+		}
+
+		public String greet(String name, int times) {
+			StringBuilder greeting = new StringBuilder();
+			for (int i = 0; i < times; i++)
+				greeting.append(greet(name));
+			return greeting.toString();
+		}
+
+	}
+
+}
@@ -0,0 +1,291 @@
+package at.refugeescode.checkin.load;
+
+import at.refugeescode.checkin.Application;
+import at.refugeescode.checkin.config.LatencyHistogram;
+import at.refugeescode.checkin.domain.Person;
+import at.refugeescode.checkin.domain.PersonRepository;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.env.Environment;
+import org.springframework.util.StreamUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalTime;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Starts the application on the embedded test database and replays a day of taps from a fleet of kiosks, compressed
+ * into {@code load.duration} seconds, while dashboards poll the public summary and the overview of the month. Prints
+ * the throughput, the latency percentiles and the SQL statements per request of every endpoint.
+ * <p>
+ * Most people arrive in the rush around 9:00, the others during the rest of the morning. They stay for about five
+ * hours, and some go out for lunch and come back. Every kiosk serves its taps one after another, like a queue at the
+ * door, so taps are late when the application cannot keep up.
+ * <p>
+ * Run with {@code mvn -P load verify}, options with {@code -Dload.args="--load.uids=5000 --load.kiosks=12"}.
+ */
+public class KioskLoad {
+
+	private static final LocalTime OPENING = LocalTime.of(7, 30);
+	private static final LocalTime CLOSING = LocalTime.of(18, 30);
+	private static final LocalTime RUSH = LocalTime.of(9, 0);
+	private static final LocalTime LUNCH = LocalTime.of(12, 30);
+
+	private static final String AUTHORIZATION = "Basic " + Base64.getEncoder().encodeToString("dev:".getBytes(StandardCharsets.UTF_8));
+
+	private final ConfigurableApplicationContext context;
+	private final StatementCounter statementCounter;
+	private final String baseUrl;
+	private final Random random;
+
+	private final int uids;
+	private final int kiosks;
+	private final int dashboards;
+	private final Duration duration;
+	private final long summaryInterval;
+	private final long overviewInterval;
+
+	private final Endpoint checkin = new Endpoint("/people/{uid}/checkin");
+	private final Endpoint summary = new Endpoint("/public/summary");
+	private final Endpoint overview = new Endpoint("/overview/{yearMonth}");
+	private final AtomicLong maxLagNanos = new AtomicLong();
+
+	public static void main(String[] args) throws Exception {
+		StatementCounter statementCounter = new StatementCounter();
+		ConfigurableApplicationContext context = new SpringApplicationBuilder(Application.class)
+				.properties("server.port=0")
+				.profiles("load")
+				.initializers(statementCounter)
+				.run(args);
+		try {
+			new KioskLoad(context, statementCounter).run();
+		} finally {
+			context.close();
+		}
+	}
+
+	private KioskLoad(ConfigurableApplicationContext context, StatementCounter statementCounter) {
+		this.context = context;
+		this.statementCounter = statementCounter;
+
+		Environment environment = context.getEnvironment();
+		baseUrl = "http://localhost:" + environment.getProperty("local.server.port");
+		random = new Random(environment.getProperty("load.seed", Long.class, 42L));
+		uids = environment.getProperty("load.uids", Integer.class, 2000);
+		kiosks = environment.getProperty("load.kiosks", Integer.class, 8);
+		dashboards = environment.getProperty("load.dashboards", Integer.class, 4);
+		duration = Duration.ofSeconds(environment.getProperty("load.duration", Long.class, 60L));
+		summaryInterval = environment.getProperty("load.summaryInterval", Long.class, 1000L);
+		overviewInterval = environment.getProperty("load.overviewInterval", Long.class, 5000L);
+	}
+
+	private void run() throws Exception {
+		List<String> people = seed();
+		List<List<Tap>> schedule = schedule(people);
+		int taps = schedule.stream().mapToInt(List::size).sum();
+		System.out.printf("Replaying %d taps of %d people on %d kiosks with %d dashboards in %d s%n",
+				taps, people.size(), kiosks, dashboards, duration.getSeconds());
+
+		ExecutorService executor = Executors.newFixedThreadPool(kiosks + dashboards);
+		AtomicBoolean running = new AtomicBoolean(true);
+		long start = System.nanoTime();
+
+		List<Future<?>> kioskFutures = new ArrayList<>();
+		for (List<Tap> kiosk : schedule)
+			kioskFutures.add(executor.submit(() -> runKiosk(kiosk, start)));
+		for (int i = 0; i < dashboards; i++) {
+			long offset = (long) (random.nextDouble() * summaryInterval);
+			executor.submit(() -> runDashboard(offset, running));
+		}
+
+		for (Future<?> future : kioskFutures)
+			future.get();
+		long elapsed = System.nanoTime() - start;
+		running.set(false);
+		executor.shutdown();
+		executor.awaitTermination(1, TimeUnit.MINUTES);
+
+		report(elapsed);
+	}
+
+	/**
+	 * Saves the people that tap, so that the first tap of everybody does not create a person.
+	 */
+	private List<String> seed() {
+		List<Person> people = new ArrayList<>(uids);
+		for (int i = 0; i < uids; i++)
+			people.add(new Person(String.format("load%06d", i), String.format("Load Person %06d", i), "load" + i + "@example.com"));
+		context.getBean(PersonRepository.class).save(people);
+
+		List<String> result = new ArrayList<>(uids);
+		people.forEach(person -> result.add(person.getUid()));
+		return result;
+	}
+
+	/**
+	 * Returns the taps of every kiosk, in the order they are due.
+	 */
+	private List<List<Tap>> schedule(List<String> people) {
+		List<List<Tap>> schedule = new ArrayList<>(kiosks);
+		for (int i = 0; i < kiosks; i++)
+			schedule.add(new ArrayList<>());
+
+		for (String uid : people) {
+			LocalTime arrival = random.nextDouble() < 0.7
+					? around(RUSH, 15)
+					: OPENING.plusMinutes(30 + random.nextInt(6 * 60));
+			LocalTime departure = arrival.plusMinutes(Math.max(30, (long) (300 + random.nextGaussian() * 90)));
+			if (departure.isAfter(CLOSING) || departure.isBefore(arrival))
+				departure = CLOSING.minusMinutes(random.nextInt(30));
+
+			List<LocalTime> times = new ArrayList<>(Arrays.asList(arrival, departure));
+			if (random.nextDouble() < 0.3) {
+				LocalTime out = around(LUNCH, 20);
+				LocalTime in = out.plusMinutes(30 + random.nextInt(30));
+				if (out.isAfter(arrival) && in.isBefore(departure))
+					times.addAll(Arrays.asList(out, in));
+			}
+
+			for (LocalTime time : times)
+				schedule.get(random.nextInt(kiosks)).add(new Tap(uid, offsetNanos(time)));
+		}
+
+		schedule.forEach(kiosk -> kiosk.sort(Comparator.comparingLong(tap -> tap.offsetNanos)));
+		return schedule;
+	}
+
+	private LocalTime around(LocalTime time, double standardDeviationMinutes) {
+		long minutes = (long) (random.nextGaussian() * standardDeviationMinutes);
+		LocalTime result = time.plusMinutes(minutes);
+		return result.isBefore(OPENING) ? OPENING : result;
+	}
+
+	private long offsetNanos(LocalTime time) {
+		double dayShare = (double) Duration.between(OPENING, time).toNanos() / Duration.between(OPENING, CLOSING).toNanos();
+		return (long) (Math.min(1, Math.max(0, dayShare)) * duration.toNanos());
+	}
+
+	private void runKiosk(List<Tap> taps, long start) {
+		for (Tap tap : taps) {
+			long lag = System.nanoTime() - start - tap.offsetNanos;
+			if (lag < 0)
+				sleep(TimeUnit.NANOSECONDS.toMillis(-lag));
+			else
+				maxLagNanos.accumulateAndGet(lag, Math::max);
+			checkin.get("/people/" + tap.uid + "/checkin", null);
+		}
+	}
+
+	private void runDashboard(long offset, AtomicBoolean running) {
+		sleep(offset);
+		String eTag = null;
+		long nextOverview = 0;
+		while (running.get()) {
+			summary.get("/public/summary", null);
+			if (System.currentTimeMillis() >= nextOverview) {
+				// like a browser, the dashboard revalidates the overview it has
+				String newETag = overview.get("/overview/" + YearMonth.now(), eTag);
+				if (newETag != null)
+					eTag = newETag;
+				nextOverview = System.currentTimeMillis() + overviewInterval;
+			}
+			sleep(summaryInterval);
+		}
+	}
+
+	private void report(long elapsedNanos) {
+		double seconds = elapsedNanos / 1e9;
+		System.out.printf("%nFinished in %.1f s, kiosks were up to %d ms late%n%n", seconds, TimeUnit.NANOSECONDS.toMillis(maxLagNanos.get()));
+		System.out.printf("%-24s %9s %7s %9s %9s %9s %9s %9s %11s%n",
+				"endpoint", "requests", "errors", "req/s", "p50 ms", "p95 ms", "p99 ms", "max ms", "statements");
+		for (Endpoint endpoint : Arrays.asList(checkin, summary, overview)) {
+			LatencyHistogram histogram = endpoint.histogram;
+			System.out.printf("%-24s %9d %7d %9.1f %9.1f %9.1f %9.1f %9.1f %11.1f%n",
+					endpoint.pattern, histogram.getCount(), endpoint.errors.get(), histogram.getCount() / seconds,
+					millis(histogram.percentile(50)), millis(histogram.percentile(95)), millis(histogram.percentile(99)),
+					millis(histogram.percentile(100)), statementCounter.statementsPerRequest(endpoint.pattern));
+		}
+	}
+
+	private static double millis(long nanos) {
+		return nanos / 1e6;
+	}
+
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static class Tap {
+
+		private final String uid;
+		private final long offsetNanos;
+
+		private Tap(String uid, long offsetNanos) {
+			this.uid = uid;
+			this.offsetNanos = offsetNanos;
+		}
+	}
+
+	private class Endpoint {
+
+		private final String pattern;
+		private final LatencyHistogram histogram;
+		private final AtomicLong errors = new AtomicLong();
+
+		private Endpoint(String pattern) {
+			this.pattern = pattern;
+			this.histogram = new LatencyHistogram(pattern);
+		}
+
+		/**
+		 * Sends a GET request, conditional if an ETag is given, and records its latency.
+		 *
+		 * @return the ETag of the response, if any
+		 */
+		private String get(String path, String eTag) {
+			long start = System.nanoTime();
+			try {
+				HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+				connection.setRequestProperty("Authorization", AUTHORIZATION);
+				if (eTag != null)
+					connection.setRequestProperty("If-None-Match", eTag);
+
+				int status = connection.getResponseCode();
+				// read the whole body, so that the connection is kept alive for the next request
+				try (InputStream body = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+					if (body != null)
+						StreamUtils.drain(body);
+				}
+				histogram.record(System.nanoTime() - start);
+				if (status != HttpURLConnection.HTTP_OK && status != HttpURLConnection.HTTP_NOT_MODIFIED)
+					errors.incrementAndGet();
+				return connection.getHeaderField("ETag");
+			} catch (IOException ex) {
+				errors.incrementAndGet();
+				return null;
+			}
+		}
+	}
+
+}
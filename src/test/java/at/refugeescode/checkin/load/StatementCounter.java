@@ -0,0 +1,109 @@
+package at.refugeescode.checkin.load;
+
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.context.ApplicationContextInitializer;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.servlet.HandlerMapping;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the SQL statements that every request prepares on its own thread, by the pattern of the handler that served
+ * it. Statements of asynchronous work that a request triggers, like mails, are not counted.
+ */
+public class StatementCounter implements ApplicationContextInitializer<ConfigurableApplicationContext>, BeanPostProcessor {
+
+	private final ThreadLocal<long[]> statements = ThreadLocal.withInitial(() -> new long[1]);
+	private final Map<String, LongAdder[]> requests = new ConcurrentHashMap<>();
+
+	@Override
+	public void initialize(ConfigurableApplicationContext context) {
+		context.getBeanFactory().addBeanPostProcessor(this);
+		context.getBeanFactory().registerSingleton("statementCountingFilter", new StatementCountingFilter());
+	}
+
+	@Override
+	public Object postProcessBeforeInitialization(Object bean, String beanName) {
+		return bean;
+	}
+
+	@Override
+	public Object postProcessAfterInitialization(Object bean, String beanName) {
+		if (!(bean instanceof DataSource) || bean instanceof CountingDataSource)
+			return bean;
+		return new CountingDataSource((DataSource) bean);
+	}
+
+	/**
+	 * Returns the average number of statements per request to the given handler pattern.
+	 */
+	public double statementsPerRequest(String pattern) {
+		LongAdder[] counts = requests.get(pattern);
+		if (counts == null || counts[0].sum() == 0)
+			return 0;
+		return (double) counts[1].sum() / counts[0].sum();
+	}
+
+	private class CountingDataSource extends DelegatingDataSource {
+
+		private CountingDataSource(DataSource target) {
+			super(target);
+		}
+
+		@Override
+		public Connection getConnection() throws SQLException {
+			return count(super.getConnection());
+		}
+
+		@Override
+		public Connection getConnection(String username, String password) throws SQLException {
+			return count(super.getConnection(username, password));
+		}
+
+		private Connection count(Connection connection) {
+			return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{Connection.class}, (proxy, method, args) -> {
+				if (method.getName().startsWith("prepare") || method.getName().equals("createStatement"))
+					statements.get()[0]++;
+				try {
+					return method.invoke(connection, args);
+				} catch (InvocationTargetException ex) {
+					throw ex.getCause();
+				}
+			});
+		}
+	}
+
+	private class StatementCountingFilter extends OncePerRequestFilter {
+
+		@Override
+		protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+				throws ServletException, IOException {
+			long before = statements.get()[0];
+			try {
+				filterChain.doFilter(request, response);
+			} finally {
+				Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+				if (pattern != null) {
+					LongAdder[] counts = requests.computeIfAbsent(pattern.toString(), key -> new LongAdder[]{new LongAdder(), new LongAdder()});
+					counts[0].increment();
+					counts[1].add(statements.get()[0] - before);
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,170 @@
+package at.refugeescode.checkin.service;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.embedded.LocalServerPort;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+		properties = {"checkin.stream.maxClients=3", "checkin.stream.heartbeat=100"})
+public class ActivityStreamTest {
+
+	@LocalServerPort
+	private int port;
+
+	@Autowired
+	private CheckinService checkinService;
+	@Autowired
+	private ActivityStream activityStream;
+
+	/**
+	 * Clients that disconnect are only noticed when a send fails, which may take long, so every test starts without the
+	 * clients of the others.
+	 */
+	@After
+	public void disconnectClients() {
+		activityStream.disconnectAll();
+	}
+
+	@Test
+	public void sendsASnapshotAndThenEveryCheck() throws IOException {
+		checkinService.newCheck("stream1");
+
+		HttpURLConnection connection = connect();
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8))) {
+			assertThat(connection.getResponseCode()).isEqualTo(200);
+			assertThat(connection.getContentType()).startsWith("text/event-stream");
+
+			assertThat(readUntil(reader, "event:")).isEqualTo("event:snapshot");
+			assertThat(reader.readLine()).startsWith("data:[{").contains("\"name\":\"new-user-");
+
+			checkinService.newCheck("stream1");
+
+			assertThat(readUntil(reader, "event:")).isEqualTo("event:change");
+			assertThat(reader.readLine()).startsWith("data:{").contains("\"checkedIn\":false");
+		} finally {
+			connection.disconnect();
+		}
+	}
+
+	@Test
+	public void sendsTheSameChangeToEveryClient() throws Exception {
+		checkinService.newCheck("stream2");
+
+		HttpURLConnection first = connect();
+		HttpURLConnection second = connect();
+		try (BufferedReader firstReader = new BufferedReader(new InputStreamReader(first.getInputStream(), StandardCharsets.UTF_8));
+			 BufferedReader secondReader = new BufferedReader(new InputStreamReader(second.getInputStream(), StandardCharsets.UTF_8))) {
+			assertThat(readUntil(firstReader, "event:")).isEqualTo("event:snapshot");
+			assertThat(readUntil(secondReader, "event:")).isEqualTo("event:snapshot");
+
+			checkinService.newCheck("stream2");
+
+			assertThat(readUntil(firstReader, "event:")).isEqualTo("event:change");
+			assertThat(readUntil(secondReader, "event:")).isEqualTo("event:change");
+			List<String> frame = readFrame(firstReader);
+			assertThat(frame).hasSize(1);
+			assertThat(frame.get(0)).startsWith("data:{").contains("\"checkedIn\":false");
+			assertThat(readFrame(secondReader)).isEqualTo(frame);
+			// a frame ends with exactly one blank line, then the next event or heartbeat follows
+			assertThat(firstReader.readLine()).isNotEmpty();
+			assertThat(secondReader.readLine()).isNotEmpty();
+		} finally {
+			first.disconnect();
+			second.disconnect();
+		}
+	}
+
+	@Test
+	public void rejectsClientsAboveTheLimit() throws IOException {
+		List<HttpURLConnection> connections = new ArrayList<>();
+		try {
+			for (int i = 0; i < 3; i++) {
+				connections.add(connect());
+				assertThat(connections.get(i).getResponseCode()).isEqualTo(200);
+			}
+
+			HttpURLConnection connection = connect();
+			connections.add(connection);
+			assertThat(connection.getResponseCode()).isEqualTo(503);
+			assertThat(activityStream.size()).isEqualTo(3);
+		} finally {
+			connections.forEach(HttpURLConnection::disconnect);
+		}
+	}
+
+	@Test
+	public void neverConnectsMoreClientsThanTheLimit() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(20);
+		try {
+			CountDownLatch start = new CountDownLatch(1);
+			List<Future<SseEmitter>> emitters = new ArrayList<>();
+			for (int i = 0; i < 20; i++)
+				emitters.add(executor.submit(() -> {
+					start.await(5, TimeUnit.SECONDS);
+					return activityStream.connect(() -> "snapshot");
+				}));
+			start.countDown();
+
+			int accepted = 0;
+			for (Future<SseEmitter> emitter : emitters)
+				if (emitter.get(5, TimeUnit.SECONDS) != null)
+					accepted++;
+			assertThat(accepted).isEqualTo(3);
+			assertThat(activityStream.size()).isEqualTo(3);
+
+			activityStream.disconnectAll();
+			assertThat(activityStream.connect(() -> "snapshot")).isNotNull();
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private HttpURLConnection connect() throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + port + "/public/stream").openConnection();
+		connection.setRequestProperty("Accept", "text/event-stream");
+		connection.setReadTimeout(10000);
+		return connection;
+	}
+
+	/**
+	 * Reads the rest of the current event, up to the blank line that ends it.
+	 */
+	private static List<String> readFrame(BufferedReader reader) throws IOException {
+		List<String> lines = new ArrayList<>();
+		String line;
+		while ((line = reader.readLine()) != null && !line.isEmpty())
+			lines.add(line);
+		return lines;
+	}
+
+	private static String readUntil(BufferedReader reader, String prefix) throws IOException {
+		String line;
+		do {
+			line = reader.readLine();
+		} while (line != null && !line.startsWith(prefix));
+		return line;
+	}
+
+}
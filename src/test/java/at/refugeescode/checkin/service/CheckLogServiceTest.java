@@ -0,0 +1,108 @@
+package at.refugeescode.checkin.service;
+
+import at.refugeescode.checkin.domain.CheckLogEntry;
+import at.refugeescode.checkin.domain.Checkin;
+import at.refugeescode.checkin.domain.CheckinRepository;
+import at.refugeescode.checkin.domain.Person;
+import at.refugeescode.checkin.domain.PersonRepository;
+import at.refugeescode.checkin.dto.CheckLog;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest
+public class CheckLogServiceTest {
+
+	private static final LocalDateTime START = LocalDateTime.of(2017, 3, 1, 9, 0);
+
+	@Autowired
+	private CheckLogService checkLogService;
+	@Autowired
+	private PersonRepository personRepository;
+	@Autowired
+	private CheckinRepository checkinRepository;
+
+	private Person person;
+	private List<Long> expectedIds;
+
+	@Before
+	public void setUp() {
+		person = personRepository.findByUid("log");
+		if (person == null) {
+			person = personRepository.save(new Person("log", "Log Test", "log@example.com"));
+			List<Checkin> checks = new ArrayList<>();
+			for (int i = 0; i < 25; i++)
+				// every other check shares its time with the one before, so that the id has to break the tie
+				checks.add(new Checkin(person, START.plusHours(i / 2), Duration.ZERO, i % 2 == 0));
+			checkinRepository.save(checks);
+		}
+
+		expectedIds = checkinRepository.findByPersonOrderByTime(person).stream()
+				.sorted(Comparator.comparing(Checkin::getTime).thenComparing(Checkin::getId).reversed())
+				.map(Checkin::getId)
+				.collect(Collectors.toList());
+	}
+
+	@Test
+	public void pagesThroughTheLogOfAPersonNewestFirst() {
+		List<Long> ids = new ArrayList<>();
+		String cursor = null;
+		int pages = 0;
+		do {
+			CheckLog page = checkLogService.page(cursor, 10, person.getId(), null, null);
+			page.getEntries().forEach(entry -> ids.add(entry.getId()));
+			assertThat(page.getEntries()).extracting(CheckLogEntry::getName).containsOnly("Log Test");
+			cursor = page.getNext();
+			pages++;
+		} while (cursor != null);
+
+		assertThat(pages).isEqualTo(3);
+		assertThat(ids).isEqualTo(expectedIds);
+	}
+
+	@Test
+	public void pagesThroughTheWholeLog() {
+		List<Long> expected = checkinRepository.findAll().stream()
+				.sorted(Comparator.comparing(Checkin::getTime).thenComparing(Checkin::getId).reversed())
+				.map(Checkin::getId)
+				.collect(Collectors.toList());
+
+		List<Long> ids = new ArrayList<>();
+		String cursor = null;
+		do {
+			CheckLog page = checkLogService.page(cursor, 7, null, null, null);
+			page.getEntries().forEach(entry -> ids.add(entry.getId()));
+			cursor = page.getNext();
+		} while (cursor != null);
+
+		assertThat(ids).isEqualTo(expected);
+	}
+
+	@Test
+	public void filtersByTimeRange() {
+		CheckLog page = checkLogService.page(null, 50, person.getId(), START.plusHours(2), START.plusHours(4));
+
+		assertThat(page.getEntries()).extracting(CheckLogEntry::getTime)
+				.containsExactly(START.plusHours(3), START.plusHours(3), START.plusHours(2), START.plusHours(2));
+		assertThat(page.getNext()).isNull();
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsInvalidCursors() {
+		checkLogService.page("not a cursor", 10, null, null, null);
+	}
+
+}
@@ -0,0 +1,164 @@
+package at.refugeescode.checkin.service;
+
+import at.refugeescode.checkin.domain.Checkin;
+import at.refugeescode.checkin.domain.CheckinRepository;
+import at.refugeescode.checkin.domain.Person;
+import at.refugeescode.checkin.domain.PersonRepository;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.util.AopTestUtils;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest
+public class CheckinServiceConcurrencyTest {
+
+	private static final int PEOPLE = 20;
+	private static final int TAPS = 2000;
+	private static final int THREADS = 32;
+
+	@Autowired
+	private CheckinService checkinService;
+	@Autowired
+	private PersonRepository personRepository;
+	@Autowired
+	private CheckinRepository checkinRepository;
+
+	@Test
+	public void tapsOfTheSamePersonAlternateUnderParallelLoad() throws Exception {
+		List<String> uids = new ArrayList<>();
+		for (int i = 0; i < PEOPLE; i++) {
+			String uid = "stress-" + i;
+			// half of the people are unknown and get a placeholder on their first tap
+			if (i % 2 == 0)
+				personRepository.save(new Person(uid, "Stress " + i, "stress" + i + "@example.com"));
+			uids.add(uid);
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		CountDownLatch start = new CountDownLatch(1);
+		List<Future<Checkin>> taps = new ArrayList<>();
+		for (int i = 0; i < TAPS; i++) {
+			String uid = uids.get(i % PEOPLE);
+			taps.add(executor.submit(() -> {
+				start.await();
+				return checkinService.newCheck(uid);
+			}));
+		}
+		start.countDown();
+		for (Future<Checkin> tap : taps)
+			tap.get(60, TimeUnit.SECONDS);
+		executor.shutdown();
+
+		for (String uid : uids) {
+			Person person = personRepository.findByUid(uid);
+			List<Checkin> checks = checkinRepository.findByPersonOrderByTime(person);
+			checks.sort(Comparator.comparing(Checkin::getId));
+			assertThat(checks).hasSize(TAPS / PEOPLE);
+
+			Checkin previous = null;
+			for (Checkin check : checks) {
+				assertThat(check.isCheckedIn()).isEqualTo(previous == null || !previous.isCheckedIn());
+				assertThat(check.getPreviousId()).isEqualTo(previous == null ? null : previous.getId());
+				assertThat(check.getDuration()).isEqualTo(previous == null ? Duration.ZERO : Duration.between(previous.getTime(), check.getTime()));
+				previous = check;
+			}
+			assertThat(checkinService.isCheckedIn(person)).isEqualTo(previous.isCheckedIn());
+		}
+	}
+
+	@Test(expected = DataIntegrityViolationException.class)
+	public void rejectsASecondCheckFollowingTheSameCheck() {
+		Checkin first = checkinService.newCheck("guard");
+		checkinService.newCheck("guard");
+
+		// what a tap on another node that still saw the first check would write
+		Checkin concurrent = new Checkin(first.getPerson(), first.getTime(), Duration.ZERO, false);
+		concurrent.setPreviousId(first.getId());
+		checkinRepository.saveAndFlush(concurrent);
+	}
+
+	@Test
+	public void firstChecksOfAPersonOnSeveralNodesFollowEachOther() throws Exception {
+		List<Person> people = new ArrayList<>();
+		for (int i = 0; i < PEOPLE; i++)
+			people.add(personRepository.save(new Person("first-" + i, "First " + i, "first" + i + "@example.com")));
+
+		// every tap gets a lock of its own, as if it was handled by another node
+		CheckinService target = AopTestUtils.getTargetObject(checkinService);
+		Object uidLocks = ReflectionTestUtils.getField(target, "uidLocks");
+		ReflectionTestUtils.setField(target, "uidLocks", new UidLocks() {
+			@Override
+			public Lock get(String uid) {
+				return new ReentrantLock();
+			}
+		});
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		try {
+			CountDownLatch start = new CountDownLatch(1);
+			List<Future<Checkin>> taps = new ArrayList<>();
+			for (Person person : people) {
+				for (int i = 0; i < 4; i++) {
+					taps.add(executor.submit(() -> {
+						start.await();
+						return checkinService.newCheck(person.getUid());
+					}));
+				}
+			}
+			start.countDown();
+			for (Future<Checkin> tap : taps)
+				tap.get(60, TimeUnit.SECONDS);
+		} finally {
+			executor.shutdown();
+			ReflectionTestUtils.setField(target, "uidLocks", uidLocks);
+		}
+
+		for (Person person : people) {
+			List<Checkin> checks = checkinRepository.findByPersonOrderByTime(person);
+			checks.sort(Comparator.comparing(Checkin::getId));
+			assertThat(checks).hasSize(4);
+			assertThat(checks.stream().filter(check -> check.getPreviousId() == null).count()).isEqualTo(1);
+			assertThat(checks).extracting(Checkin::isCheckedIn).containsExactly(true, false, true, false);
+		}
+	}
+
+	@Test
+	public void autoCheckOutSkipsPeopleWhoHaveTappedSince() {
+		for (int i = 0; i < 3; i++)
+			checkinService.newCheck("late-" + i);
+		List<Checkin> openCheckIns = checkinRepository.findOpenCheckIns().stream()
+				.filter(checkIn -> checkIn.getPerson().getUid().startsWith("late-"))
+				.collect(Collectors.toList());
+		assertThat(openCheckIns).hasSize(3);
+
+		// a tap after the open check ins have been read, which the check out would otherwise conflict with
+		Checkin tap = checkinService.newCheck("late-1");
+
+		List<Person> checkedOut = checkinService.checkOut(openCheckIns);
+
+		assertThat(checkedOut).extracting(Person::getUid).containsExactlyInAnyOrder("late-0", "late-2");
+		assertThat(checkinRepository.findByPersonOrderByTime(tap.getPerson())).hasSize(2);
+		for (Person person : checkedOut) {
+			List<Checkin> checks = checkinRepository.findByPersonOrderByTime(person);
+			assertThat(checks).hasSize(2);
+			assertThat(checks.get(1).isCheckedIn()).isFalse();
+			assertThat(checks.get(1).getPreviousId()).isEqualTo(checks.get(0).getId());
+		}
+	}
+
+}
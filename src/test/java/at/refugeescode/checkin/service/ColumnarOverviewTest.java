@@ -0,0 +1,175 @@
+package at.refugeescode.checkin.service;
+
+import at.refugeescode.checkin.domain.Checkin;
+import at.refugeescode.checkin.domain.CheckinRepository;
+import at.refugeescode.checkin.domain.DailyAttendance;
+import at.refugeescode.checkin.domain.DailyAttendanceRepository;
+import at.refugeescode.checkin.domain.Person;
+import at.refugeescode.checkin.domain.PersonRepository;
+import at.refugeescode.checkin.dto.Attendance;
+import at.refugeescode.checkin.dto.Overview;
+import at.refugeescode.checkin.web.CheckinController;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+public class ColumnarOverviewTest {
+
+	private static final YearMonth JUNE = YearMonth.of(2015, 6);
+
+	@Autowired
+	private CheckinService checkinService;
+	@Autowired
+	private PersonRepository personRepository;
+	@Autowired
+	private CheckinRepository checkinRepository;
+	@Autowired
+	private DailyAttendanceRepository dailyAttendanceRepository;
+	@Autowired
+	private TestRestTemplate restTemplate;
+
+	@Before
+	public void setUp() {
+		if (personRepository.findByUid("columnar") == null) {
+			Person person = personRepository.save(new Person("columnar", "Columnar Test", "columnar@example.com"));
+			dailyAttendanceRepository.save(Arrays.asList(
+					new DailyAttendance(person, LocalDate.of(2015, 6, 1), Duration.ofHours(8)),
+					new DailyAttendance(person, LocalDate.of(2015, 6, 7), Duration.ofMinutes(90).plusSeconds(30)),
+					new DailyAttendance(person, LocalDate.of(2015, 6, 30), Duration.ofHours(2))));
+		}
+	}
+
+	@Test
+	public void describesTheMonthOnceAndEveryPersonInMinutes() throws IOException {
+		JsonNode overview = columnarOverview();
+
+		assertThat(overview.get("yearMonth").asText()).isEqualTo("2015-06");
+		assertThat(overview.get("days").asInt()).isEqualTo(30);
+		assertThat(overview.get("firstDayOfWeek").asInt()).isEqualTo(1);
+		assertThat(ints(overview.get("weekEnds"))).containsExactly(7, 14, 21, 28);
+
+		int index = names(overview).indexOf("Columnar Test");
+		List<Integer> minutes = ints(overview.get("minutes").get(index));
+		assertThat(minutes).hasSize(30);
+		assertThat(minutes.get(0)).isEqualTo(480);
+		assertThat(minutes.get(6)).isEqualTo(91);
+		assertThat(minutes.get(29)).isEqualTo(120);
+		assertThat(ints(overview.get("weekMinutes").get(index))).containsExactly(571, 0, 0, 0);
+	}
+
+	@Test
+	public void matchesTheOverview() throws IOException {
+		JsonNode columnar = columnarOverview();
+		Overview overview = checkinService.overview(JUNE);
+
+		List<String> names = names(columnar);
+		assertThat(names).containsExactlyElementsOf(overview.getAttendance().stream().map(Attendance::getName)::iterator);
+
+		for (int i = 0; i < names.size(); i++) {
+			// the overview has the total of every week after its last day
+			List<String> durations = new ArrayList<>();
+			List<Integer> minutes = ints(columnar.get("minutes").get(i));
+			List<Integer> weekMinutes = ints(columnar.get("weekMinutes").get(i));
+			List<Integer> weekEnds = ints(columnar.get("weekEnds"));
+			for (int day = 1, week = 0; day <= minutes.size(); day++) {
+				durations.add(format(minutes.get(day - 1)));
+				if (week < weekEnds.size() && weekEnds.get(week) == day)
+					durations.add(format(weekMinutes.get(week++)));
+			}
+			assertThat(durations).isEqualTo(overview.getAttendance().get(i).getDurations());
+		}
+	}
+
+	@Test
+	public void isNegotiatedByTheAcceptHeader() {
+		ResponseEntity<String> columnar = get(CheckinController.COLUMNAR_OVERVIEW.toString());
+		ResponseEntity<String> json = get(MediaType.ALL_VALUE);
+
+		assertThat(columnar.getHeaders().getContentType().isCompatibleWith(CheckinController.COLUMNAR_OVERVIEW)).isTrue();
+		assertThat(columnar.getBody()).contains("\"minutes\"");
+		assertThat(json.getHeaders().getContentType().isCompatibleWith(MediaType.APPLICATION_JSON)).isTrue();
+		assertThat(json.getBody()).contains("\"attendance\"");
+		assertThat(columnar.getHeaders().getETag()).isNotEqualTo(json.getHeaders().getETag());
+		assertThat(json.getHeaders().getVary()).contains(HttpHeaders.ACCEPT);
+	}
+
+	@Test
+	public void isNotModifiedUntilAnyInstanceChangesTheMonthOrAddsAPerson() {
+		String eTag = get(MediaType.ALL_VALUE).getHeaders().getETag();
+		assertThat(get(MediaType.ALL_VALUE, eTag).getStatusCode()).isEqualTo(HttpStatus.NOT_MODIFIED);
+
+		// a check written by another instance, which this one is not told about
+		Person person = personRepository.findByUid("columnar");
+		checkinRepository.save(new Checkin(person, LocalDateTime.of(2015, 6, 12, 9, 0), Duration.ZERO, true));
+		ResponseEntity<String> changed = get(MediaType.ALL_VALUE, eTag);
+		assertThat(changed.getStatusCode()).isEqualTo(HttpStatus.OK);
+
+		// the first tap of a new person is not in this month, but the person is listed
+		eTag = changed.getHeaders().getETag();
+		checkinService.newCheck("columnar-new");
+		ResponseEntity<String> added = get(MediaType.ALL_VALUE, eTag);
+		assertThat(added.getStatusCode()).isEqualTo(HttpStatus.OK);
+		assertThat(added.getBody()).contains("columnar-new");
+	}
+
+	private JsonNode columnarOverview() throws IOException {
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		checkinService.writeColumnarOverview(JUNE, outputStream);
+		return new ObjectMapper().readTree(outputStream.toByteArray());
+	}
+
+	private ResponseEntity<String> get(String accept) {
+		return get(accept, null);
+	}
+
+	private ResponseEntity<String> get(String accept, String ifNoneMatch) {
+		HttpHeaders headers = new HttpHeaders();
+		headers.set(HttpHeaders.ACCEPT, accept);
+		if (ifNoneMatch != null)
+			headers.setIfNoneMatch(ifNoneMatch);
+		return restTemplate.withBasicAuth("dev", "").exchange("/overview/" + JUNE, HttpMethod.GET, new HttpEntity<>(headers), String.class);
+	}
+
+	private static List<String> names(JsonNode overview) {
+		List<String> names = new ArrayList<>();
+		overview.get("names").forEach(name -> names.add(name.asText()));
+		return names;
+	}
+
+	private static List<Integer> ints(JsonNode array) {
+		List<Integer> ints = new ArrayList<>();
+		array.forEach(value -> ints.add(value.asInt()));
+		return ints;
+	}
+
+	private static String format(int minutes) {
+		return CheckinService.formatDuration(Duration.ofMinutes(minutes));
+	}
+
+}
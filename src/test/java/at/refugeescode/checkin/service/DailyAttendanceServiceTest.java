@@ -0,0 +1,73 @@
+package at.refugeescode.checkin.service;
+
+import at.refugeescode.checkin.domain.Checkin;
+import at.refugeescode.checkin.domain.CheckinRepository;
+import at.refugeescode.checkin.domain.DailyAttendance;
+import at.refugeescode.checkin.domain.DailyAttendanceRepository;
+import at.refugeescode.checkin.domain.Person;
+import at.refugeescode.checkin.domain.PersonRepository;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.time.Duration;
+import java.time.LocalDate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.httpBasic;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.patch;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest
+@AutoConfigureMockMvc
+public class DailyAttendanceServiceTest {
+
+	private static final LocalDate DAY = LocalDate.of(2016, 3, 7);
+
+	@Autowired
+	private PersonRepository personRepository;
+	@Autowired
+	private CheckinRepository checkinRepository;
+	@Autowired
+	private DailyAttendanceRepository dailyAttendanceRepository;
+	@Autowired
+	private MockMvc mockMvc;
+
+	@Test
+	public void followsChecksChangedThroughTheRestApi() throws Exception {
+		Person person = personRepository.save(new Person("rollup1", "Rollup One", "rollup1@example.com"));
+		Checkin checkIn = checkinRepository.save(new Checkin(person, DAY.atTime(8, 0), Duration.ZERO, true));
+		Checkin checkOut = new Checkin(person, DAY.atTime(16, 0), Duration.ofHours(8), false);
+		checkOut.setPreviousId(checkIn.getId());
+		checkOut = checkinRepository.save(checkOut);
+		dailyAttendanceRepository.save(new DailyAttendance(person, DAY, Duration.ofHours(8)));
+
+		// an admin moves the check out, to the next day by mistake
+		mockMvc.perform(patch("/checkins/" + checkOut.getId()).with(httpBasic("dev", ""))
+				.contentType(MediaType.APPLICATION_JSON)
+				.content("{\"time\": \"" + DAY.plusDays(1).atTime(9, 0) + "\", \"duration\": \"PT25H\"}"))
+				.andExpect(status().is2xxSuccessful());
+
+		assertThat(duration(person, DAY)).isNull();
+		assertThat(duration(person, DAY.plusDays(1))).isEqualTo(Duration.ofHours(25));
+
+		// and deletes it
+		mockMvc.perform(delete("/checkins/" + checkOut.getId()).with(httpBasic("dev", "")))
+				.andExpect(status().is2xxSuccessful());
+
+		assertThat(duration(person, DAY.plusDays(1))).isNull();
+	}
+
+	private Duration duration(Person person, LocalDate day) {
+		DailyAttendance dailyAttendance = dailyAttendanceRepository.findByPersonAndDay(person, day);
+		return dailyAttendance == null ? null : dailyAttendance.getDuration();
+	}
+
+}
@@ -0,0 +1,104 @@
+package at.refugeescode.checkin.service;
+
+import at.refugeescode.checkin.domain.Checkin;
+import at.refugeescode.checkin.domain.CheckinRepository;
+import at.refugeescode.checkin.domain.Person;
+import at.refugeescode.checkin.domain.PersonRepository;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.embedded.LocalServerPort;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.util.StreamUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+public class ExportServiceTest {
+
+	private static final LocalDateTime START = LocalDateTime.of(2016, 2, 1, 9, 0);
+
+	@LocalServerPort
+	private int port;
+
+	@Autowired
+	private ExportService exportService;
+	@Autowired
+	private PersonRepository personRepository;
+	@Autowired
+	private CheckinRepository checkinRepository;
+
+	private Person person;
+
+	@Before
+	public void setUp() {
+		person = personRepository.findByUid("export");
+		if (person == null) {
+			person = personRepository.save(new Person("export", "Export, \"The\" Person", "export@example.com"));
+			checkinRepository.save(Arrays.asList(
+					new Checkin(person, START, Duration.ZERO, true),
+					new Checkin(person, START.plusHours(8), Duration.ofHours(8), false),
+					new Checkin(person, START.plusDays(40), Duration.ofDays(40).minusHours(8), true)));
+		}
+	}
+
+	@Test
+	public void exportsCsv() throws IOException {
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+		long rows = exportService.export(ExportService.Format.CSV, person.getId(), LocalDate.of(2016, 2, 1), LocalDate.of(2016, 3, 1), outputStream);
+
+		List<String> lines = Arrays.asList(outputStream.toString("UTF-8").split("\n"));
+		assertThat(rows).isEqualTo(2);
+		assertThat(lines).hasSize(3);
+		assertThat(lines.get(0)).isEqualTo("id,time,checkedIn,duration,personId,name,email");
+		assertThat(lines.get(2)).endsWith(",2016-02-01T17:00,false,PT8H," + person.getId() + ",\"Export, \"\"The\"\" Person\",export@example.com");
+	}
+
+	@Test
+	public void exportsNdjson() throws IOException {
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+		exportService.export(ExportService.Format.NDJSON, person.getId(), LocalDate.of(2016, 1, 1), LocalDate.of(2017, 1, 1), outputStream);
+
+		String[] lines = outputStream.toString("UTF-8").split("\n");
+		assertThat(lines).hasSize(3);
+		JsonNode first = new ObjectMapper().readTree(lines[0]);
+		assertThat(first.get("time").asText()).isEqualTo("2016-02-01T09:00");
+		assertThat(first.get("checkedIn").asBoolean()).isTrue();
+		assertThat(first.get("name").asText()).isEqualTo("Export, \"The\" Person");
+	}
+
+	@Test
+	public void compressesTheExportForClientsThatAcceptGzip() throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + port +
+				"/export/checkins?personId=" + person.getId() + "&from=2016-02-01&to=2016-03-01").openConnection();
+		connection.setRequestProperty("Authorization", "Basic " + Base64.getEncoder().encodeToString("dev:".getBytes(StandardCharsets.UTF_8)));
+		connection.setRequestProperty("Accept-Encoding", "gzip");
+
+		assertThat(connection.getResponseCode()).isEqualTo(200);
+		assertThat(connection.getContentType()).isEqualTo("text/csv;charset=UTF-8");
+		assertThat(connection.getContentEncoding()).isEqualTo("gzip");
+		String csv = StreamUtils.copyToString(new GZIPInputStream(connection.getInputStream()), StandardCharsets.UTF_8);
+		assertThat(csv.split("\n")).hasSize(3);
+	}
+
+}
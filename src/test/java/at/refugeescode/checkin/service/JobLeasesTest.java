@@ -0,0 +1,157 @@
+package at.refugeescode.checkin.service;
+
+import at.refugeescode.checkin.Application;
+import at.refugeescode.checkin.domain.JobLeaseRepository;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Runs several instances of the application on one embedded database, like several dynos on one PostgreSQL.
+ */
+public class JobLeasesTest {
+
+	private static final int INSTANCES = 3;
+	private static final Duration TTL = Duration.ofMinutes(1);
+
+	private static final List<ConfigurableApplicationContext> contexts = new ArrayList<>();
+
+	@BeforeClass
+	public static void startInstances() {
+		for (int i = 0; i < INSTANCES; i++) {
+			// as arguments, which take precedence over the test configuration, so that the database of the other tests
+			// is neither shared nor dropped
+			contexts.add(new SpringApplicationBuilder(Application.class)
+					.web(false)
+					.run("--spring.datasource.url=jdbc:h2:mem:leases;DB_CLOSE_DELAY=-1;DB_CLOSE_ON_EXIT=FALSE",
+							"--spring.jpa.hibernate.ddl-auto=update",
+							"--spring.jmx.enabled=false"));
+		}
+	}
+
+	@AfterClass
+	public static void stopInstances() {
+		contexts.forEach(ConfigurableApplicationContext::close);
+	}
+
+	private static JobLeases leases(int instance) {
+		return contexts.get(instance).getBean(JobLeases.class);
+	}
+
+	@Test
+	public void onlyOneInstanceRunsAJobPerTrigger() throws Exception {
+		LocalDateTime trigger = LocalDateTime.of(2017, 7, 3, 23, 0);
+		AtomicInteger runs = new AtomicInteger();
+
+		ExecutorService executor = Executors.newFixedThreadPool(INSTANCES);
+		CountDownLatch start = new CountDownLatch(1);
+		List<Future<Boolean>> results = new ArrayList<>();
+		for (int i = 0; i < INSTANCES; i++) {
+			JobLeases leases = leases(i);
+			results.add(executor.submit(() -> {
+				start.await();
+				return leases.run("JobLeasesTest.perTrigger", runs::incrementAndGet, trigger, TTL);
+			}));
+		}
+		start.countDown();
+
+		int ran = 0;
+		for (Future<Boolean> result : results)
+			ran += result.get(30, TimeUnit.SECONDS) ? 1 : 0;
+		executor.shutdown();
+
+		assertThat(ran).isEqualTo(1);
+		assertThat(runs.get()).isEqualTo(1);
+
+		// a late instance does not run it again for the same trigger, but any instance runs it for the next one
+		assertThat(leases(0).run("JobLeasesTest.perTrigger", runs::incrementAndGet, trigger, TTL)).isFalse();
+		assertThat(leases(1).run("JobLeasesTest.perTrigger", runs::incrementAndGet, trigger.plusHours(1), TTL)).isTrue();
+		assertThat(runs.get()).isEqualTo(2);
+	}
+
+	@Test
+	public void anExpiredLeaseIsTakenOverAndFencesOffItsHolder() throws Exception {
+		String job = "JobLeasesTest.takeOver";
+		LocalDateTime trigger = LocalDateTime.of(2017, 7, 3, 23, 0);
+		Duration ttl = Duration.ofMillis(200);
+		JobLeases stalled = leases(0);
+		JobLeases other = leases(1);
+		TransactionTemplate transaction = new TransactionTemplate(contexts.get(0).getBean(PlatformTransactionManager.class));
+		AtomicLong stalledToken = new AtomicLong();
+		AtomicLong otherToken = new AtomicLong();
+
+		assertThat(stalled.run(job, () -> {
+			stalledToken.set(stalled.getCurrentLease().getToken());
+
+			// while the lease is held, the next trigger is skipped
+			assertThat(other.run(job, () -> { }, trigger.plusHours(1), ttl)).isFalse();
+
+			// the holder stalls until its lease expires, and another instance takes it over
+			sleep(ttl.toMillis() * 2);
+			assertThat(other.run(job, () -> otherToken.set(other.getCurrentLease().getToken()), trigger.plusHours(2), ttl)).isTrue();
+
+			assertThatThrownBy(() -> transaction.execute(status -> {
+				stalled.fence();
+				return null;
+			})).isInstanceOf(IllegalStateException.class);
+		}, trigger, ttl)).isTrue();
+
+		assertThat(otherToken.get()).isGreaterThan(stalledToken.get());
+		assertThat(stalled.getMetrics().get("lost").longValue()).isGreaterThanOrEqualTo(1);
+	}
+
+	@Test
+	public void aTriggerWhoseHolderDiedRunsOnAnotherInstance() throws Exception {
+		String job = "JobLeasesTest.died";
+		LocalDateTime trigger = LocalDateTime.of(2017, 7, 3, 23, 0);
+		Duration ttl = Duration.ofMillis(500);
+		AtomicInteger runs = new AtomicInteger();
+		CountDownLatch ran = new CountDownLatch(1);
+
+		// the holder takes the lease, and dies before it releases it
+		assertThat(leases(0).acquire(job, trigger, ttl)).isNotNull();
+
+		assertThat(leases(1).run(job, () -> {
+			runs.incrementAndGet();
+			ran.countDown();
+		}, trigger, ttl)).isFalse();
+		assertThat(ran.await(10, TimeUnit.SECONDS)).isTrue();
+
+		// once the trigger has finished, no instance runs it again
+		JobLeaseRepository jobLeaseRepository = contexts.get(2).getBean(JobLeaseRepository.class);
+		for (int i = 0; i < 100 && !trigger.equals(jobLeaseRepository.findOne(job).getCompletedTrigger()); i++)
+			sleep(50);
+		sleep(ttl.toMillis() * 2);
+		assertThat(leases(2).run(job, runs::incrementAndGet, trigger, ttl)).isFalse();
+		assertThat(runs.get()).isEqualTo(1);
+		assertThat(leases(1).getMetrics().get("takenOver").longValue()).isEqualTo(1);
+	}
+
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
@@ -0,0 +1,102 @@
+package at.refugeescode.checkin.service;
+
+import at.refugeescode.checkin.config.JobMonitor;
+import at.refugeescode.checkin.domain.OutboxMail;
+import com.icegreen.greenmail.util.GreenMail;
+import com.icegreen.greenmail.util.ServerSetupTest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Mockito.*;
+
+public class MailServiceTest {
+
+	private GreenMail greenMail;
+	private MailOutbox mailOutbox;
+	private MailService mailService;
+
+	@Before
+	public void setUp() {
+		greenMail = new GreenMail(ServerSetupTest.SMTP);
+		greenMail.start();
+
+		JavaMailSenderImpl mailSender = new JavaMailSenderImpl();
+		mailSender.setHost("localhost");
+		mailSender.setPort(ServerSetupTest.SMTP.getPort());
+
+		mailOutbox = mock(MailOutbox.class);
+
+		mailService = new MailService(mailSender, mailOutbox, mock(JobMonitor.class));
+		ReflectionTestUtils.setField(mailService, "enabled", true);
+		ReflectionTestUtils.setField(mailService, "from", "checkin@example.com");
+		ReflectionTestUtils.setField(mailService, "webmaster", "webmaster@example.com");
+		ReflectionTestUtils.setField(mailService, "batchSize", 2);
+		ReflectionTestUtils.setField(mailService, "maxPerSecond", 100.0);
+		mailService.initialize();
+	}
+
+	@After
+	public void tearDown() {
+		greenMail.stop();
+	}
+
+	@Test
+	public void appendsMailsToTheOutbox() {
+		mailService.sendMail("person@example.com", null, "bcc@example.com", "Subject", "Text");
+
+		verify(mailOutbox).append("checkin@example.com", "person@example.com", null, "bcc@example.com", "Subject", "Text");
+	}
+
+	@Test
+	public void sendsClaimedMailsInOneBatch() {
+		List<OutboxMail> mails = Arrays.asList(mail("first@example.com"), mail("second@example.com"));
+		when(mailOutbox.claim(2)).thenReturn(mails);
+
+		mailService.processQueue();
+
+		assertThat(greenMail.getReceivedMessages()).hasSize(2);
+		verify(mailOutbox).sent(argThat(containsExactly(mails)));
+		verify(mailOutbox, never()).failed(anyCollectionOf(OutboxMail.class), any(Exception.class));
+		assertThat(mailService.getMetrics().get("sent")).isEqualTo(2L);
+		assertThat(mailService.getMetrics().get("batches")).isEqualTo(1L);
+	}
+
+	@Test
+	public void reschedulesMailsWhenTheServerIsUnavailable() {
+		List<OutboxMail> mails = Arrays.asList(mail("first@example.com"), mail("second@example.com"));
+		when(mailOutbox.claim(2)).thenReturn(mails);
+		greenMail.stop();
+
+		mailService.processQueue();
+
+		verify(mailOutbox).failed(argThat(containsExactly(mails)), any(Exception.class));
+		verify(mailOutbox, never()).sent(anyCollectionOf(OutboxMail.class));
+		assertThat(mailService.getMetrics().get("failed")).isEqualTo(2L);
+	}
+
+	private static OutboxMail mail(String to) {
+		LocalDateTime now = LocalDateTime.now();
+		return new OutboxMail("checkin@example.com", to, "Subject", "Text", OutboxMail.Status.SENDING, now, now);
+	}
+
+	private static org.hamcrest.Matcher<Collection<OutboxMail>> containsExactly(List<OutboxMail> mails) {
+		return new org.hamcrest.CustomMatcher<Collection<OutboxMail>>("mails " + mails) {
+			@Override
+			public boolean matches(Object item) {
+				return item instanceof Collection && mails.equals(Arrays.asList(((Collection<?>) item).toArray()));
+			}
+		};
+	}
+
+}
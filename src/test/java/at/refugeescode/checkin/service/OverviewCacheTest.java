@@ -0,0 +1,151 @@
+package at.refugeescode.checkin.service;
+
+import at.refugeescode.checkin.domain.CheckinRepository;
+import at.refugeescode.checkin.domain.CheckinTally;
+import at.refugeescode.checkin.domain.OverviewVersion;
+import at.refugeescode.checkin.domain.OverviewVersionRepository;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+public class OverviewCacheTest {
+
+	private static final YearMonth MARCH = YearMonth.of(2017, 3);
+	private static final YearMonth APRIL = YearMonth.of(2017, 4);
+
+	/**
+	 * The database that every instance shares.
+	 */
+	private final OverviewVersion allMonths = new OverviewVersion(OverviewVersion.ID, 0, LocalDateTime.of(2017, 1, 1, 0, 0));
+	private final Map<YearMonth, CheckinTally> tallies = new HashMap<>();
+
+	private OverviewCache overviewCache;
+	private OverviewCache otherInstance;
+
+	@Before
+	public void setUp() {
+		CheckinRepository checkinRepository = mock(CheckinRepository.class);
+		when(checkinRepository.tally(any(LocalDateTime.class), any(LocalDateTime.class))).thenAnswer(invocation ->
+				tallies.getOrDefault(YearMonth.from(invocation.getArgumentAt(0, LocalDateTime.class)), new CheckinTally(0L, null, null)));
+
+		OverviewVersionRepository overviewVersionRepository = mock(OverviewVersionRepository.class);
+		when(overviewVersionRepository.exists(OverviewVersion.ID)).thenReturn(true);
+		when(overviewVersionRepository.findOne(OverviewVersion.ID)).thenAnswer(invocation ->
+				new OverviewVersion(allMonths.getId(), allMonths.getNumber(), allMonths.getModified()));
+		when(overviewVersionRepository.bump(any(LocalDateTime.class))).thenAnswer(invocation -> {
+			allMonths.setNumber(allMonths.getNumber() + 1);
+			allMonths.setModified(invocation.getArgumentAt(0, LocalDateTime.class));
+			return 1;
+		});
+
+		overviewCache = new OverviewCache(checkinRepository, overviewVersionRepository);
+		overviewCache.initialize();
+		otherInstance = new OverviewCache(checkinRepository, overviewVersionRepository);
+		otherInstance.initialize();
+	}
+
+	@Test
+	public void aCheckMovesTheVersionOfItsMonthOnly() {
+		OverviewCache.Version march = overviewCache.version(MARCH);
+		OverviewCache.Version april = overviewCache.version(APRIL);
+
+		check(LocalDateTime.of(2017, 3, 15, 10, 0), 1);
+
+		assertThat(overviewCache.version(MARCH)).isNotEqualTo(march);
+		assertThat(overviewCache.version(MARCH).getModified()).isGreaterThan(march.getModified());
+		assertThat(overviewCache.version(APRIL)).isEqualTo(april);
+		assertThat(overviewCache.eTag(MARCH, "json", overviewCache.version(MARCH))).isNotEqualTo(overviewCache.eTag(MARCH, "json", march));
+	}
+
+	@Test
+	public void replacingACheckMovesTheVersionOfItsMonth() {
+		check(LocalDateTime.of(2017, 3, 15, 10, 0), 1);
+		OverviewCache.Version march = overviewCache.version(MARCH);
+
+		// deleted, and another one added at an earlier time
+		tallies.put(MARCH, new CheckinTally(1L, 2L, LocalDateTime.of(2017, 3, 14, 10, 0)));
+
+		assertThat(overviewCache.version(MARCH)).isNotEqualTo(march);
+	}
+
+	@Test
+	public void touchAllMovesTheVersionOfEveryMonth() {
+		check(LocalDateTime.of(2017, 3, 15, 10, 0), 1);
+		OverviewCache.Version march = overviewCache.version(MARCH);
+		OverviewCache.Version april = overviewCache.version(APRIL);
+
+		overviewCache.touchAll();
+
+		assertThat(overviewCache.version(MARCH)).isNotEqualTo(march);
+		assertThat(overviewCache.version(APRIL)).isNotEqualTo(april);
+	}
+
+	@Test
+	public void everyInstanceSeesTheSameVersionAndETag() {
+		check(LocalDateTime.of(2017, 3, 15, 10, 0), 1);
+		otherInstance.touchAll();
+
+		OverviewCache.Version version = overviewCache.version(MARCH);
+
+		assertThat(otherInstance.version(MARCH)).isEqualTo(version);
+		assertThat(otherInstance.eTag(MARCH, "json", version)).isEqualTo(overviewCache.eTag(MARCH, "json", version));
+	}
+
+	@Test
+	public void servesTheCachedOverviewUntilItsMonthChanges() {
+		byte[] first = overviewCache.get(MARCH, "json", overviewCache.version(MARCH), () -> new byte[]{1});
+		byte[] cached = overviewCache.get(MARCH, "json", overviewCache.version(MARCH), () -> new byte[]{2});
+		// written by another instance
+		check(LocalDateTime.of(2017, 3, 15, 10, 0), 1);
+		byte[] fresh = overviewCache.get(MARCH, "json", overviewCache.version(MARCH), () -> new byte[]{3});
+
+		assertThat(first).containsExactly(1);
+		assertThat(cached).containsExactly(1);
+		assertThat(fresh).containsExactly(3);
+		assertThat(overviewCache.getMetrics()).containsEntry("hits", 1L).containsEntry("misses", 2L);
+	}
+
+	@Test
+	public void cachesEveryRepresentationOnItsOwn() {
+		OverviewCache.Version version = overviewCache.version(MARCH);
+		overviewCache.get(MARCH, "json", version, () -> new byte[]{1});
+
+		byte[] columnar = overviewCache.get(MARCH, "columnar", version, () -> new byte[]{2});
+
+		assertThat(columnar).containsExactly(2);
+		assertThat(overviewCache.eTag(MARCH, "columnar", version)).isNotEqualTo(overviewCache.eTag(MARCH, "json", version));
+		assertThat(overviewCache.getMetrics()).containsEntry("cached", 2);
+
+		overviewCache.touchAll();
+
+		assertThat(overviewCache.getMetrics()).containsEntry("cached", 0);
+	}
+
+	@Test
+	public void doesNotCacheAnOverviewThatChangedWhileItWasSerialized() {
+		OverviewCache.Version version = overviewCache.version(MARCH);
+		overviewCache.get(MARCH, "json", version, () -> {
+			check(LocalDateTime.of(2017, 3, 15, 10, 0), 1);
+			return new byte[]{1};
+		});
+
+		byte[] body = overviewCache.get(MARCH, "json", overviewCache.version(MARCH), () -> new byte[]{2});
+
+		assertThat(body).containsExactly(2);
+		assertThat(overviewCache.getMetrics()).containsEntry("cached", 1).containsEntry("hits", 0L);
+	}
+
+	private void check(LocalDateTime time, long id) {
+		CheckinTally tally = tallies.getOrDefault(YearMonth.from(time), new CheckinTally(0L, null, null));
+		tallies.put(YearMonth.from(time), new CheckinTally(tally.getCount() + 1, id, time));
+	}
+
+}
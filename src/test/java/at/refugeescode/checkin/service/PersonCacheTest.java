@@ -0,0 +1,73 @@
+package at.refugeescode.checkin.service;
+
+import at.refugeescode.checkin.domain.Person;
+import at.refugeescode.checkin.domain.PersonRepository;
+import com.google.common.collect.ImmutableMap;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+public class PersonCacheTest {
+
+	@Autowired
+	private PersonCache personCache;
+	@Autowired
+	private PersonRepository personRepository;
+	@Autowired
+	private CheckinService checkinService;
+	@Autowired
+	private TestRestTemplate restTemplate;
+
+	@Test
+	public void answersRepeatedLookupsFromTheCache() {
+		Person person = personRepository.save(new Person("cache1", "Cache One", "cache1@example.com"));
+
+		personCache.findByUid("cache1");
+		long hits = hits();
+		Person cached = personCache.findByUid("cache1");
+
+		assertThat(hits()).isEqualTo(hits + 1);
+		assertThat(cached.getId()).isEqualTo(person.getId());
+		assertThat(cached.getName()).isEqualTo("Cache One");
+	}
+
+	@Test
+	public void dropsPeopleChangedThroughTheRestApi() {
+		Person person = personRepository.save(new Person("cache2", "Cache Two", "cache2@example.com"));
+		assertThat(personCache.findByUid("cache2").getName()).isEqualTo("Cache Two");
+
+		ResponseEntity<Void> response = restTemplate.withBasicAuth("dev", "").exchange("/people/" + person.getId(), HttpMethod.PUT,
+				new HttpEntity<>(ImmutableMap.of("uid", "cache2b", "name", "Cache Renamed", "email", "cache2@example.com")), Void.class);
+
+		assertThat(response.getStatusCode()).isIn(HttpStatus.OK, HttpStatus.NO_CONTENT);
+		assertThat(personCache.findByUid("cache2")).isNull();
+		assertThat(personCache.findByUid("cache2b").getName()).isEqualTo("Cache Renamed");
+	}
+
+	@Test
+	public void cachesPeopleCreatedOnTheirFirstTap() {
+		checkinService.newCheck("cache3");
+		long hits = hits();
+
+		Person person = checkinService.newCheck("cache3").getPerson();
+
+		assertThat(hits()).isEqualTo(hits + 1);
+		assertThat(person.getName()).startsWith("new-user-").endsWith("-cache3");
+	}
+
+	private long hits() {
+		return personCache.getMetrics().get("hits").longValue();
+	}
+
+}
@@ -0,0 +1,56 @@
+package at.refugeescode.checkin.service;
+
+import at.refugeescode.checkin.domain.Checkin;
+import at.refugeescode.checkin.domain.Person;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.httpBasic;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.patch;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest
+@AutoConfigureMockMvc
+public class PresenceIndexRestTest {
+
+	@Autowired
+	private CheckinService checkinService;
+	@Autowired
+	private PresenceIndex presenceIndex;
+	@Autowired
+	private MockMvc mockMvc;
+
+	@Test
+	public void followsChecksChangedThroughTheRestApi() throws Exception {
+		Checkin checkIn = checkinService.newCheck("presence-rest");
+		Checkin checkOut = checkinService.newCheck("presence-rest");
+		Person person = checkOut.getPerson();
+		assertThat(presenceIndex.get(person).get().isCheckedIn()).isFalse();
+
+		// an admin turns the check out into a check in
+		mockMvc.perform(patch("/checkins/" + checkOut.getId()).with(httpBasic("dev", ""))
+				.contentType(MediaType.APPLICATION_JSON)
+				.content("{\"checkedIn\": true}"))
+				.andExpect(status().is2xxSuccessful());
+		assertThat(presenceIndex.get(person).get().isCheckedIn()).isTrue();
+
+		// deleting the last check moves the person back to the one before
+		mockMvc.perform(delete("/checkins/" + checkOut.getId()).with(httpBasic("dev", "")))
+				.andExpect(status().is2xxSuccessful());
+		assertThat(presenceIndex.get(person).get().getTime()).isEqualTo(checkIn.getTime());
+
+		mockMvc.perform(delete("/checkins/" + checkIn.getId()).with(httpBasic("dev", "")))
+				.andExpect(status().is2xxSuccessful());
+		assertThat(presenceIndex.get(person).isPresent()).isFalse();
+	}
+
+}
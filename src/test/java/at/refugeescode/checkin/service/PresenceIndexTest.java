@@ -0,0 +1,70 @@
+package at.refugeescode.checkin.service;
+
+import at.refugeescode.checkin.Application;
+import at.refugeescode.checkin.domain.Person;
+import at.refugeescode.checkin.domain.PersonRepository;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Runs two instances of the application on one embedded database, each with a presence index of its own.
+ */
+public class PresenceIndexTest {
+
+	private static ConfigurableApplicationContext writer;
+	private static ConfigurableApplicationContext reader;
+
+	@BeforeClass
+	public static void startInstances() {
+		writer = start();
+		reader = start();
+	}
+
+	@AfterClass
+	public static void stopInstances() {
+		writer.close();
+		reader.close();
+	}
+
+	private static ConfigurableApplicationContext start() {
+		return new SpringApplicationBuilder(Application.class)
+				.web(false)
+				.run("--spring.datasource.url=jdbc:h2:mem:presence;DB_CLOSE_DELAY=-1;DB_CLOSE_ON_EXIT=FALSE",
+						"--spring.jpa.hibernate.ddl-auto=update",
+						"--spring.jmx.enabled=false",
+						"--checkin.presence.refreshDelay=100");
+	}
+
+	@Test
+	public void seesTheChecksOfOtherInstances() {
+		CheckinService checkinService = writer.getBean(CheckinService.class);
+		CheckinService otherCheckinService = reader.getBean(CheckinService.class);
+
+		checkinService.newCheck("presence1");
+		Person person = reader.getBean(PersonRepository.class).findByUid("presence1");
+		assertThat(eventually(() -> otherCheckinService.isCheckedIn(person))).isTrue();
+
+		// like the nightly check out, which only the instance with the lease runs
+		checkinService.autoCheckOut();
+		assertThat(eventually(() -> !otherCheckinService.isCheckedIn(person))).isTrue();
+	}
+
+	private static boolean eventually(BooleanSupplier condition) {
+		for (int i = 0; i < 100 && !condition.getAsBoolean(); i++) {
+			try {
+				Thread.sleep(50);
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		return condition.getAsBoolean();
+	}
+
+}
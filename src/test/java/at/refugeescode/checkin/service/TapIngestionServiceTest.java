@@ -0,0 +1,109 @@
+package at.refugeescode.checkin.service;
+
+import at.refugeescode.checkin.domain.Checkin;
+import at.refugeescode.checkin.domain.CheckinRepository;
+import at.refugeescode.checkin.domain.DailyDuration;
+import at.refugeescode.checkin.domain.Person;
+import at.refugeescode.checkin.domain.PersonRepository;
+import at.refugeescode.checkin.dto.Tap;
+import at.refugeescode.checkin.dto.TapBatchResult;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest
+public class TapIngestionServiceTest {
+
+	private static final LocalDate DAY = LocalDate.of(2017, 5, 2);
+
+	@Autowired
+	private TapIngestionService tapIngestionService;
+	@Autowired
+	private DailyAttendanceService dailyAttendanceService;
+	@Autowired
+	private PresenceIndex presenceIndex;
+	@Autowired
+	private PersonRepository personRepository;
+	@Autowired
+	private CheckinRepository checkinRepository;
+
+	@Test
+	public void mergesOfflineTapsIntoTheHistory() {
+		Person person = personRepository.save(new Person("tap1", "Tap One", "tap1@example.com"));
+		Checkin checkIn = checkinRepository.save(new Checkin(person, DAY.minusDays(1).atTime(8, 0), Duration.ZERO, true));
+		Checkin checkOut = new Checkin(person, DAY.minusDays(1).atTime(16, 0), Duration.ofHours(8), false);
+		checkOut.setPreviousId(checkIn.getId());
+		checkOut = checkinRepository.save(checkOut);
+		// the kiosk that saw the check in was offline, so the check out was recorded as a check in
+		Checkin online = new Checkin(person, DAY.atTime(17, 0), Duration.ofHours(25), true);
+		online.setPreviousId(checkOut.getId());
+		checkinRepository.save(online);
+
+		TapBatchResult result = tapIngestionService.ingest(Arrays.asList(
+				new Tap("tap1", DAY.atTime(9, 0), "kiosk", "tap1-1")));
+
+		assertThat(result.getRecorded()).isEqualTo(1);
+
+		List<Checkin> checks = checkinRepository.findByPersonOrderByTime(person);
+		assertThat(checks).extracting(Checkin::getTime)
+				.containsExactly(DAY.minusDays(1).atTime(8, 0), DAY.minusDays(1).atTime(16, 0), DAY.atTime(9, 0), DAY.atTime(17, 0));
+		assertThat(checks).extracting(Checkin::isCheckedIn).containsExactly(true, false, true, false);
+		assertThat(checks).extracting(Checkin::getDuration)
+				.containsExactly(Duration.ZERO, Duration.ofHours(8), Duration.ofHours(17), Duration.ofHours(8));
+		assertThat(checks.get(2).getKioskId()).isEqualTo("kiosk");
+		assertThat(checks.get(2).getPreviousId()).isEqualTo(checks.get(1).getId());
+		assertThat(checks.get(3).getPreviousId()).isEqualTo(checks.get(2).getId());
+
+		List<Duration> durations = dailyAttendanceService.dailyDurations(DAY, DAY.plusDays(1)).stream()
+				.filter(dailyDuration -> dailyDuration.getPersonId().equals(person.getId()))
+				.map(DailyDuration::getDuration)
+				.collect(Collectors.toList());
+		assertThat(durations).containsExactly(Duration.ofHours(8));
+	}
+
+	@Test
+	public void recordsEveryTapOnce() {
+		List<Tap> taps = Arrays.asList(
+				new Tap("tap2", DAY.atTime(12, 0), "kiosk", "tap2-2"),
+				new Tap("tap2", DAY.atTime(10, 0), "kiosk", "tap2-1"),
+				new Tap("tap2", DAY.atTime(10, 0), "kiosk", "tap2-1"));
+
+		TapBatchResult first = tapIngestionService.ingest(taps);
+		TapBatchResult second = tapIngestionService.ingest(taps);
+
+		assertThat(first.getRecorded()).isEqualTo(2);
+		assertThat(first.getDuplicates()).isEqualTo(1);
+		assertThat(second.getRecorded()).isEqualTo(0);
+		assertThat(second.getDuplicates()).isEqualTo(3);
+
+		Person person = personRepository.findByUid("tap2");
+		assertThat(person.getName()).startsWith("new-user-");
+		assertThat(checkinRepository.findByPersonOrderByTime(person)).extracting(Checkin::isCheckedIn).containsExactly(true, false);
+		assertThat(presenceIndex.get(person).get().isCheckedIn()).isFalse();
+	}
+
+	@Test
+	public void rejectsIncompleteTapsAndTapsFromTheFuture() {
+		TapBatchResult result = tapIngestionService.ingest(Arrays.asList(
+				new Tap(null, DAY.atTime(9, 0), "kiosk", "tap3-1"),
+				new Tap("tap3", null, "kiosk", "tap3-2"),
+				new Tap("tap3", DAY.atTime(9, 0), "kiosk", null),
+				new Tap("tap3", LocalDateTime.now().plusHours(1), "kiosk", "tap3-3")));
+
+		assertThat(result.getRejected()).isEqualTo(4);
+		assertThat(personRepository.findByUid("tap3")).isNull();
+	}
+
+}
@@ -0,0 +1,124 @@
+package at.refugeescode.checkin.service;
+
+import at.refugeescode.checkin.config.JobMonitor;
+import at.refugeescode.checkin.domain.DailyDuration;
+import at.refugeescode.checkin.domain.Person;
+import at.refugeescode.checkin.domain.PersonRepository;
+import at.refugeescode.checkin.dto.WeeklySummaryReport;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.isNull;
+import static org.mockito.Mockito.*;
+
+public class WeeklySummaryServiceTest {
+
+	private MailService mailService;
+	private DailyAttendanceService dailyAttendanceService;
+	private WeeklySummaryService weeklySummaryService;
+	private List<Person> people;
+
+	@Before
+	public void setUp() {
+		people = Arrays.asList(person(1, "Ada"), person(2, "Grace"), person(3, "Linus"));
+		List<DailyDuration> dailyDurations = Arrays.asList(
+				new DailyDuration(1L, LocalDate.now(), Duration.ofHours(2)),
+				new DailyDuration(1L, LocalDate.now(), Duration.ofMinutes(5).plusSeconds(1)),
+				new DailyDuration(3L, LocalDate.now(), Duration.ofMinutes(61)));
+
+		PersonRepository personRepository = mock(PersonRepository.class);
+		when(personRepository.findAllByOrderByName()).thenReturn(people);
+
+		dailyAttendanceService = mock(DailyAttendanceService.class);
+		when(dailyAttendanceService.dailyDurations(any(LocalDate.class), any(LocalDate.class), anyCollectionOf(Long.class))).thenAnswer(invocation -> {
+			Collection<?> personIds = invocation.getArgumentAt(2, Collection.class);
+			return dailyDurations.stream().filter(dailyDuration -> personIds.contains(dailyDuration.getPersonId())).collect(Collectors.toList());
+		});
+
+		mailService = mock(MailService.class);
+		when(mailService.sendMails(anyListOf(Person.class), anyListOf(String.class), anyString(), anyString(), anyString())).thenReturn(3);
+
+		weeklySummaryService = new WeeklySummaryService(personRepository, dailyAttendanceService, mailService, mock(JobMonitor.class),
+				mock(JobLeases.class), mock(PlatformTransactionManager.class));
+		ReflectionTestUtils.setField(weeklySummaryService, "trainer", "trainer@example.com");
+		ReflectionTestUtils.setField(weeklySummaryService, "webmaster", "webmaster@example.com");
+		ReflectionTestUtils.setField(weeklySummaryService, "workers", 2);
+		ReflectionTestUtils.setField(weeklySummaryService, "chunkSize", 2);
+		weeklySummaryService.initialize();
+	}
+
+	@After
+	public void tearDown() throws InterruptedException {
+		weeklySummaryService.shutdown();
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void queuesTheSummariesOfEveryChunkInOrder() {
+		WeeklySummaryReport report = weeklySummaryService.summarize(false);
+
+		ArgumentCaptor<List> texts = ArgumentCaptor.forClass(List.class);
+		verify(mailService).sendMails(eq(people), texts.capture(), isNull(String.class), eq("webmaster@example.com"), anyString());
+		List<String> personalMessages = texts.getValue();
+		assertThat(personalMessages).hasSize(3);
+		assertThat(personalMessages.get(0)).startsWith("Hello Ada!").contains("checked in for 2 hours and 6 minutes.");
+		assertThat(personalMessages.get(1)).startsWith("Hello Grace!").contains("checked in for 0 hours and 0 minutes.");
+		assertThat(personalMessages.get(2)).startsWith("Hello Linus!").contains("checked in for 1 hours and 1 minutes.");
+
+		ArgumentCaptor<String> summary = ArgumentCaptor.forClass(String.class);
+		verify(mailService).sendMail(eq("trainer@example.com"), isNull(String.class), isNull(String.class), anyString(), summary.capture());
+		assertThat(summary.getValue()).contains("<table><tr><td>Ada</td><td>2:06</td></tr><tr><td>Grace</td><td>0:00</td></tr>" +
+				"<tr><td>Linus</td><td>1:01</td></tr></table>");
+
+		verify(dailyAttendanceService, times(2)).dailyDurations(any(LocalDate.class), any(LocalDate.class), anyCollectionOf(Long.class));
+		assertThat(report.getPeople()).isEqualTo(3);
+		assertThat(report.getChunks()).isEqualTo(2);
+		assertThat(report.getMails()).isEqualTo(3);
+	}
+
+	@Test
+	public void dryRunRendersWithoutQueueing() {
+		WeeklySummaryReport report = weeklySummaryService.summarize(true);
+
+		verifyZeroInteractions(mailService);
+		assertThat(report.isDryRun()).isTrue();
+		assertThat(report.getPeople()).isEqualTo(3);
+		assertThat(report.getMails()).isEqualTo(0);
+		assertThat(report.getEnqueueMillis()).isLessThanOrEqualTo(report.getTotalMillis());
+	}
+
+	@Test
+	public void templatesAppendToTheBufferLikeStringFormat() {
+		MailTemplate template = MailTemplate.compile("%s<td>%s</td>%s");
+		StringBuilder buffer = new StringBuilder("<tr>");
+
+		template.render(buffer, "a", 1, "");
+
+		assertThat(template.getArity()).isEqualTo(3);
+		assertThat(buffer.toString()).isEqualTo("<tr>" + String.format("%s<td>%s</td>%s", "a", 1, ""));
+	}
+
+	private static Person person(long id, String name) {
+		Person person = new Person(name.toLowerCase(), name, name.toLowerCase() + "@example.com");
+		person.setId(id);
+		return person;
+	}
+
+}